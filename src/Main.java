@@ -3,6 +3,10 @@ import server.MyHTTPServer;
 import servlets.HtmlLoader;
 import servlets.TopicDisplayer;
 import servlets.ConfLoader;
+import servlets.GraphRemover;
+import servlets.ClusterExpander;
+import servlets.ActionRouter;
+import configs.GraphRegistry;
 import utils.Logger;
 
 public class Main {
@@ -13,9 +17,19 @@ public class Main {
         boolean debug = false;
         Logger.info("Starting server");
 
+        GraphRegistry graphs = new GraphRegistry();
         HTTPServer server=new MyHTTPServer(port,5);
-        server.addServlet("GET", "/publish", new TopicDisplayer());
-        server.addServlet("POST", "/upload", new ConfLoader());
+        TopicDisplayer topicDisplayer = new TopicDisplayer(graphs);
+        ClusterExpander clusterExpander = new ClusterExpander(graphs);
+        server.addServlet("GET", "/publish", topicDisplayer);
+        server.addServlet("GET", "/cluster", clusterExpander);
+        server.addServlet("POST", "/upload", new ConfLoader(graphs));
+        // Named graph instances: /g/{graph}/publish, /g/{graph}/cluster, /g/{graph}/upload and DELETE /g/{graph}
+        server.addServlet("GET", "/g/", new ActionRouter()
+                .add("publish", topicDisplayer)
+                .add("cluster", clusterExpander));
+        server.addServlet("POST", "/g/", new ConfLoader(graphs));
+        server.addServlet("DELETE", "/g/", new GraphRemover(graphs));
         server.addServlet("GET", "/app/", new HtmlLoader("html_files"));
 
         server.start();
@@ -0,0 +1,36 @@
+package agents;
+
+import graph.TopicManagerSingleton.TopicManager;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The BurstAgent class publishes messages in bursts, e.g. {@code BurstAgent burst=500 every=2s}: 500 messages
+ * at once every 2 seconds, the first burst right away. The values count up from 1 within each burst, so the
+ * position of a message in its burst can be told downstream. burst defaults to 100 and every to 1s.
+ */
+public class BurstAgent extends GeneratorAgent {
+    private final long burst;
+    private final long everyNanos;
+
+    public BurstAgent(TopicManager manager, List<String> subs, List<String> pubs, Map<String, String> options) {
+        super(manager, subs, pubs, options, "BurstAgent");
+        try {
+            this.burst = (long) positive(options, "burst", 100, "BurstAgent");
+            this.everyNanos = duration(options, "every", "1s", "BurstAgent");
+        } catch (IllegalArgumentException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    protected long due(long elapsedNanos) {
+        return elapsedNanos < 0 ? 0 : burst * (elapsedNanos / everyNanos + 1);
+    }
+
+    @Override
+    protected double next(long index) {
+        return index % burst + 1;
+    }
+}
@@ -0,0 +1,28 @@
+package agents;
+
+import graph.TopicManagerSingleton.TopicManager;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The ConstantRateAgent class publishes the same value at a steady rate,
+ * e.g. {@code ConstantRateAgent rate=1000 value=2.5}. The value defaults to 1.
+ */
+public class ConstantRateAgent extends GeneratorAgent {
+    private final double value;
+
+    public ConstantRateAgent(TopicManager manager, List<String> subs, List<String> pubs, Map<String, String> options) {
+        super(manager, subs, pubs, options, "ConstantRateAgent");
+        try {
+            this.value = Double.parseDouble(options.getOrDefault("value", "1"));
+        } catch (NumberFormatException e) {
+            close();
+            throw new IllegalArgumentException("ConstantRateAgent value must be a number, not " + options.get("value"));
+        }
+    }
+
+    @Override
+    protected double next(long index) {
+        return value;
+    }
+}
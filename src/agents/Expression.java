@@ -0,0 +1,318 @@
+package agents;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The Expression class is an arithmetic formula over named inputs, compiled once into a tree of MethodHandles
+ * that takes the input values as a double array.
+ *
+ * Formulas use numbers, input names, the operators + - * / ^ (power, right associative), unary minus,
+ * parentheses and the functions sqrt, abs, exp, log, sin, cos, tan, min and max, e.g. {@code (A*B)/C^2}.
+ * Parts of the formula without inputs are computed while compiling.
+ */
+final class Expression {
+    private static final MethodType UNARY = MethodType.methodType(double.class, double.class);
+    private static final MethodType BINARY = MethodType.methodType(double.class, double.class, double.class);
+    private static final MethodType COMPILED = MethodType.methodType(double.class, double[].class);
+    private static final Map<String, MethodHandle> FUNCTIONS = new HashMap<>();
+    private static final MethodHandle ADD;
+    private static final MethodHandle SUBTRACT;
+    private static final MethodHandle MULTIPLY;
+    private static final MethodHandle DIVIDE;
+    private static final MethodHandle POWER;
+    private static final MethodHandle NEGATE;
+    private static final MethodHandle ELEMENT = MethodHandles.arrayElementGetter(double[].class);
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            ADD = lookup.findStatic(Expression.class, "add", BINARY);
+            SUBTRACT = lookup.findStatic(Expression.class, "subtract", BINARY);
+            MULTIPLY = lookup.findStatic(Expression.class, "multiply", BINARY);
+            DIVIDE = lookup.findStatic(Expression.class, "divide", BINARY);
+            NEGATE = lookup.findStatic(Expression.class, "negate", UNARY);
+            POWER = lookup.findStatic(Math.class, "pow", BINARY);
+            for (String name : new String[] {"sqrt", "abs", "exp", "log", "sin", "cos", "tan"}) {
+                FUNCTIONS.put(name, lookup.findStatic(Math.class, name, UNARY));
+            }
+            FUNCTIONS.put("min", lookup.findStatic(Math.class, "min", BINARY));
+            FUNCTIONS.put("max", lookup.findStatic(Math.class, "max", BINARY));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static double add(double a, double b) {
+        return a + b;
+    }
+
+    private static double subtract(double a, double b) {
+        return a - b;
+    }
+
+    private static double multiply(double a, double b) {
+        return a * b;
+    }
+
+    private static double divide(double a, double b) {
+        return a / b;
+    }
+
+    private static double negate(double a) {
+        return -a;
+    }
+
+    private final String text;
+    private final MethodHandle handle;  // (double[]) -> double
+
+    private Expression(String text, MethodHandle handle) {
+        this.text = text;
+        this.handle = handle;
+    }
+
+    /**
+     * Compiles a formula.
+     *
+     * @param text the formula
+     * @param inputs the input names; the value of inputs.get(i) is passed at index i
+     * @return the compiled formula
+     * @throws IllegalArgumentException if the formula is invalid or uses an unknown input
+     */
+    static Expression compile(String text, List<String> inputs) {
+        Parser parser = new Parser(text, inputs);
+        Term term = parser.expression();
+        parser.skipWhitespace();
+        if (parser.position < text.length()) {
+            throw parser.error("Unexpected '" + text.charAt(parser.position) + "'");
+        }
+        return new Expression(text, term.handle());
+    }
+
+    /**
+     * Returns the formula as written.
+     */
+    String getText() {
+        return text;
+    }
+
+    /**
+     * Evaluates the formula.
+     *
+     * @param inputs the input values, indexed like the input names given to compile
+     */
+    double evaluate(double[] inputs) {
+        try {
+            return (double) handle.invokeExact(inputs);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    /**
+     * A compiled part of the formula: a constant, or a handle reading the inputs.
+     */
+    private static final class Term {
+        final MethodHandle handle;  // null for a constant
+        final double value;
+
+        Term(MethodHandle handle, double value) {
+            this.handle = handle;
+            this.value = value;
+        }
+
+        MethodHandle handle() {
+            if (handle != null) {
+                return handle;
+            }
+            return MethodHandles.dropArguments(MethodHandles.constant(double.class, value), 0, double[].class);
+        }
+    }
+
+    /**
+     * Applies a unary operation, folding it if the operand is a constant.
+     */
+    private static Term apply(MethodHandle operation, Term operand) throws Throwable {
+        if (operand.handle == null) {
+            return new Term(null, (double) operation.invokeExact(operand.value));
+        }
+        return new Term(MethodHandles.filterArguments(operation, 0, operand.handle), 0);
+    }
+
+    /**
+     * Applies a binary operation, folding it if both operands are constants.
+     */
+    private static Term apply(MethodHandle operation, Term left, Term right) throws Throwable {
+        if (left.handle == null && right.handle == null) {
+            return new Term(null, (double) operation.invokeExact(left.value, right.value));
+        }
+        // (double[], double[]) -> double, then both arguments bound to the same array
+        MethodHandle both = MethodHandles.filterArguments(operation, 0, left.handle(), right.handle());
+        return new Term(MethodHandles.permuteArguments(both, COMPILED, 0, 0), 0);
+    }
+
+    /**
+     * A recursive descent parser that compiles while it parses.
+     */
+    private static final class Parser {
+        final String text;
+        final List<String> inputs;
+        int position;
+
+        Parser(String text, List<String> inputs) {
+            this.text = text;
+            this.inputs = inputs;
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + (position + 1) + " of expression "
+                    + text);
+        }
+
+        void skipWhitespace() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+        }
+
+        boolean accept(char c) {
+            skipWhitespace();
+            if (position < text.length() && text.charAt(position) == c) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        void expect(char c) {
+            if (!accept(c)) {
+                throw error("Expected '" + c + "'");
+            }
+        }
+
+        // expression := term (('+' | '-') term)*
+        Term expression() {
+            Term term = term();
+            while (true) {
+                if (accept('+')) {
+                    term = combine(ADD, term, term());
+                } else if (accept('-')) {
+                    term = combine(SUBTRACT, term, term());
+                } else {
+                    return term;
+                }
+            }
+        }
+
+        // term := unary (('*' | '/') unary)*
+        Term term() {
+            Term term = unary();
+            while (true) {
+                if (accept('*')) {
+                    term = combine(MULTIPLY, term, unary());
+                } else if (accept('/')) {
+                    term = combine(DIVIDE, term, unary());
+                } else {
+                    return term;
+                }
+            }
+        }
+
+        // unary := '-' unary | power
+        Term unary() {
+            if (accept('-')) {
+                return combine(NEGATE, unary());
+            }
+            return power();
+        }
+
+        // power := primary ('^' unary)?
+        Term power() {
+            Term base = primary();
+            if (accept('^')) {
+                return combine(POWER, base, unary());
+            }
+            return base;
+        }
+
+        // primary := number | input | function '(' arguments ')' | '(' expression ')'
+        Term primary() {
+            if (accept('(')) {
+                Term term = expression();
+                expect(')');
+                return term;
+            }
+            skipWhitespace();
+            int start = position;
+            if (position < text.length() && (Character.isDigit(text.charAt(position)) || text.charAt(position) == '.')) {
+                while (position < text.length()
+                        && (Character.isDigit(text.charAt(position)) || text.charAt(position) == '.')) {
+                    position++;
+                }
+                try {
+                    return new Term(null, Double.parseDouble(text.substring(start, position)));
+                } catch (NumberFormatException e) {
+                    position = start;
+                    throw error("Invalid number");
+                }
+            }
+            while (position < text.length()
+                    && (Character.isLetterOrDigit(text.charAt(position)) || text.charAt(position) == '_')) {
+                position++;
+            }
+            if (start == position) {
+                throw error(position < text.length() ? "Unexpected '" + text.charAt(position) + "'"
+                        : "Unexpected end");
+            }
+            String name = text.substring(start, position);
+            if (accept('(')) {
+                return function(name, start);
+            }
+            int index = inputs.indexOf(name);
+            if (index < 0) {
+                position = start;
+                throw error("Unknown input '" + name + "'");
+            }
+            return new Term(MethodHandles.insertArguments(ELEMENT, 1, index), 0);
+        }
+
+        Term function(String name, int start) {
+            MethodHandle function = FUNCTIONS.get(name);
+            if (function == null) {
+                position = start;
+                throw error("Unknown function '" + name + "'");
+            }
+            Term first = expression();
+            if (function.type().parameterCount() == 1) {
+                expect(')');
+                return combine(function, first);
+            }
+            expect(',');
+            Term second = expression();
+            expect(')');
+            return combine(function, first, second);
+        }
+
+        Term combine(MethodHandle operation, Term operand) {
+            try {
+                return apply(operation, operand);
+            } catch (Throwable t) {
+                throw error(t.toString());
+            }
+        }
+
+        Term combine(MethodHandle operation, Term left, Term right) {
+            try {
+                return apply(operation, left, right);
+            } catch (Throwable t) {
+                throw error(t.toString());
+            }
+        }
+    }
+}
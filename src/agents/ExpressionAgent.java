@@ -0,0 +1,60 @@
+package agents;
+
+import graph.TopicManagerSingleton.TopicManager;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The ExpressionAgent class computes a whole formula over its input topics in one agent, e.g.
+ * <pre>
+ * ExpressionAgent expr=(A*B)/C^2
+ * A,B,C
+ * R
+ * </pre>
+ * The formula is given in the expr option, without whitespace, and refers to the inputs by topic name.
+ * It is compiled once when the agent is created, so evaluating it involves no queue or thread hop between
+ * operators. Results that are not finite, e.g. after a division by zero, are not published.
+ */
+public class ExpressionAgent extends OperatorAgent {
+    /** Option holding the formula */
+    public static final String EXPRESSION_OPTION = "expr";
+    private final Expression expression;
+
+    public ExpressionAgent(TopicManager manager, List<String> subs, List<String> pubs, Map<String, String> options) {
+        this(manager, subs, pubs, compile(options.get(EXPRESSION_OPTION), subs));
+    }
+
+    private ExpressionAgent(TopicManager manager, List<String> subs, List<String> pubs, Expression expression) {
+        super(manager, subs, pubs, "ExpressionAgent", 1, Integer.MAX_VALUE, equationParts(expression, subs));
+        this.expression = expression;
+    }
+
+    private static Expression compile(String formula, List<String> subs) {
+        if (formula == null || formula.isEmpty()) {
+            throw new IllegalArgumentException("ExpressionAgent requires a formula, e.g. expr=(A*B)/C^2");
+        }
+        return Expression.compile(formula, subs);
+    }
+
+    /**
+     * Shows the formula followed by the value of each input, e.g. {@code (A*B)/C^2 with A=1.0, B=2.0, C=3.0}.
+     */
+    private static String[] equationParts(Expression expression, List<String> subs) {
+        String[] parts = new String[subs.size() + 1];
+        for (int i = 0; i < subs.size(); i++) {
+            parts[i] = (i == 0 ? expression.getText() + " with " : ", ") + subs.get(i) + "=";
+        }
+        parts[subs.size()] = "";
+        return parts;
+    }
+
+    @Override
+    protected double result(double[] slots) {
+        double result = expression.evaluate(slots);
+        if (!Double.isFinite(result)) {
+            System.err.println("Result of " + expression.getText() + " is not a finite number");
+            return Double.NaN;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,235 @@
+package agents;
+
+import graph.LazyEquation;
+import graph.Message;
+import graph.SourceAgent;
+import graph.Topic;
+import graph.TopicManagerSingleton.TopicManager;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The GeneratorAgent class is the base of the agents that publish values by themselves, to feed a graph
+ * in-process, e.g. for load tests, without going through HTTP. Generators take no input topics, written
+ * as {@code -}, and publish every value to all their output topics:
+ * <pre>
+ * ConstantRateAgent rate=100000 value=1
+ * -
+ * A
+ * </pre>
+ * All generators run on one shared scheduler. Instead of scheduling every message, a generator wakes up
+ * every {@link #TICK_MICROS} microseconds and publishes the messages that have become due since, so high
+ * rates cost one task per tick. A generator that falls more than a second behind skips the missed messages
+ * rather than flooding the graph. The options every generator takes are:
+ * <ul>
+ *   <li>{@code rate}: messages per second (default 1)</li>
+ *   <li>{@code keys}: if set, the messages carry the keys 1 to keys in turn</li>
+ * </ul>
+ * A generator starts once the graph is wired and stops when it is closed.
+ */
+public abstract class GeneratorAgent implements SourceAgent {
+    /** Time between two wake-ups of a generator */
+    static final long TICK_MICROS = 1000;
+    private static final ScheduledExecutorService SCHEDULER = Executors.newScheduledThreadPool(
+            Runtime.getRuntime().availableProcessors(), task -> {
+                Thread thread = new Thread(task, "generator");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private final TopicManager manager;
+    private final List<String> pubs;
+    private final Topic[] outTopics;
+    private final String name;
+    private final String uuid;
+    private final int keys;
+    private final LazyEquation equation;
+    protected final double rate;  // messages per second
+    private ScheduledFuture<?> task;
+    private volatile boolean closed;  // checked between messages, so close() does not wait for a whole tick
+    private long startNanos;
+    private long emitted;            // messages published since the start or the last reset
+
+    /**
+     * Creates the generator and registers it as publisher of its topics.
+     *
+     * @param manager the topic manager owning the topics
+     * @param subs the input topics, which must be empty
+     * @param pubs the output topics
+     * @param options the generator's options
+     * @param name the agent's name, e.g. ConstantRateAgent
+     * @throws IllegalArgumentException if there are inputs, no output, or an invalid option
+     */
+    protected GeneratorAgent(TopicManager manager, List<String> subs, List<String> pubs, Map<String, String> options,
+                             String name) {
+        if (!subs.isEmpty() || pubs.isEmpty()) {
+            throw new IllegalArgumentException(name + " requires no inputs, written as -, and at least 1 output");
+        }
+        this.rate = positive(options, "rate", 1, name);
+        this.keys = options.containsKey("keys") ? (int) positive(options, "keys", 1, name) : 0;
+        this.manager = manager;
+        this.pubs = pubs;
+        this.name = name;
+        this.uuid = UUID.randomUUID().toString();
+        this.equation = new LazyEquation("sent ", ", last ", "");
+        this.outTopics = new Topic[pubs.size()];
+        for (int i = 0; i < pubs.size(); i++) {
+            outTopics[i] = manager.getTopic(pubs.get(i));
+            outTopics[i].addPublisher(this);
+        }
+    }
+
+    /**
+     * Reads a positive number option.
+     */
+    static double positive(Map<String, String> options, String option, double defaultValue, String name) {
+        String text = options.get(option);
+        if (text == null) {
+            return defaultValue;
+        }
+        try {
+            double value = Double.parseDouble(text);
+            if (value > 0 && value < Double.POSITIVE_INFINITY) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException(name + " " + option + " must be a positive number, not " + text);
+    }
+
+    /**
+     * Reads a duration option such as 500ms, 5s or 1m, in nanoseconds.
+     */
+    static long duration(Map<String, String> options, String option, String defaultValue, String name) {
+        String text = options.getOrDefault(option, defaultValue);
+        long unit = text.endsWith("ms") ? 1_000_000L : text.endsWith("s") ? 1_000_000_000L
+                : text.endsWith("m") ? 60_000_000_000L : 0;
+        try {
+            double amount = Double.parseDouble(text.substring(0, text.length() - (unit == 1_000_000L ? 2 : 1)));
+            if (unit > 0 && amount > 0) {
+                return (long) (amount * unit);
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException(name + " " + option + " must be a duration like 500ms, 5s or 1m, not "
+                + text);
+    }
+
+    /**
+     * Returns the value of a message.
+     *
+     * @param index the number of the message since the start or the last reset
+     * @return the value, or NaN to skip this message
+     */
+    protected abstract double next(long index);
+
+    /**
+     * Returns how many messages should have been published after the given time since the start.
+     * By default {@link #rate} per second, evenly spread.
+     */
+    protected long due(long elapsedNanos) {
+        return (long) (elapsedNanos * rate / 1e9);
+    }
+
+    /**
+     * Called by a reset, before the generator starts counting again.
+     */
+    protected void restarted() {
+    }
+
+    @Override
+    public synchronized void start() {
+        if (task == null && !closed) {
+            startNanos = System.nanoTime();
+            task = SCHEDULER.scheduleAtFixedRate(this::tick, 0, TICK_MICROS, TimeUnit.MICROSECONDS);
+        }
+    }
+
+    /**
+     * Publishes the messages that have become due since the last tick.
+     */
+    private synchronized void tick() {
+        try {
+            long elapsed = System.nanoTime() - startNanos;
+            long target = due(elapsed);
+            long oneSecond = Math.max(1, target - due(elapsed - 1_000_000_000L));
+            if (target - emitted > oneSecond) {
+                emitted = target - oneSecond;  // More than a second behind, skip ahead
+            }
+            while (emitted < target && !closed) {
+                double value = next(emitted);
+                long key = keys > 0 ? emitted % keys + 1 : Message.NO_KEY;
+                emitted++;
+                if (!Double.isNaN(value)) {
+                    Message message = new Message(value, key);
+                    for (Topic topic : outTopics) {
+                        topic.publish(message);
+                    }
+                    equation.set(1, value);
+                }
+            }
+            equation.set(0, emitted);
+        } catch (RuntimeException e) {
+            System.err.println("Error generating messages in " + name + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getUUID() {
+        return uuid;
+    }
+
+    /**
+     * Starts counting the messages again from now.
+     */
+    @Override
+    public synchronized void reset() {
+        startNanos = System.nanoTime();
+        emitted = 0;
+        equation.clear();
+        restarted();
+    }
+
+    /**
+     * Does nothing, generators have no inputs.
+     */
+    @Override
+    public void callback(String topic, Message msg) {
+    }
+
+    @Override
+    public Message getEquation() {
+        return equation.get();
+    }
+
+    /**
+     * Stops publishing and unregisters from the output topics. Waits for a tick in progress, so no message is
+     * published once this returns.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        ScheduledFuture<?> current;
+        synchronized (this) {  // A running tick holds the monitor and stops at its next message
+            current = task;
+        }
+        if (current != null) {
+            current.cancel(false);
+        }
+        for (String topic : pubs) {
+            manager.getTopic(topic).removePublisher(this);
+        }
+    }
+}
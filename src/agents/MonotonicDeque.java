@@ -0,0 +1,80 @@
+package agents;
+
+/**
+ * The MonotonicDeque class finds the minimum or maximum of a sliding window in amortized O(1) per sample.
+ *
+ * It keeps only the samples that can still become the extreme: a new sample first drops the samples at
+ * the back that it equals or beats, so the values from front to back stay ordered and the front is always
+ * the extreme of the window. Values and sample numbers are kept in primitive ring buffers that double
+ * when they fill up.
+ */
+final class MonotonicDeque {
+    private final boolean max;
+    private double[] values = new double[16];
+    private long[] sequences = new long[16];
+    private int head;
+    private int count;
+
+    /**
+     * Creates an empty deque.
+     *
+     * @param max true to track the maximum, false for the minimum
+     */
+    MonotonicDeque(boolean max) {
+        this.max = max;
+    }
+
+    /**
+     * Adds the newest sample of the window.
+     */
+    void add(long sequence, double value) {
+        while (count > 0) {
+            double last = values[(head + count - 1) % values.length];
+            if (max ? last > value : last < value) {
+                break;
+            }
+            count--;
+        }
+        if (count == values.length) {
+            grow();
+        }
+        int tail = (head + count) % values.length;
+        values[tail] = value;
+        sequences[tail] = sequence;
+        count++;
+    }
+
+    /**
+     * Drops the oldest sample of the window, if the deque still holds it.
+     */
+    void remove(long sequence) {
+        if (count > 0 && sequences[head] == sequence) {
+            head = (head + 1) % values.length;
+            count--;
+        }
+    }
+
+    /**
+     * Returns the minimum or maximum of the window, NaN if it is empty.
+     */
+    double extreme() {
+        return count == 0 ? Double.NaN : values[head];
+    }
+
+    void clear() {
+        head = 0;
+        count = 0;
+    }
+
+    private void grow() {
+        double[] newValues = new double[values.length * 2];
+        long[] newSequences = new long[values.length * 2];
+        for (int i = 0; i < count; i++) {
+            newValues[i] = values[(head + i) % values.length];
+            newSequences[i] = sequences[(head + i) % values.length];
+        }
+        values = newValues;
+        sequences = newSequences;
+        head = 0;
+    }
+}
@@ -0,0 +1,20 @@
+package agents;
+
+import graph.TopicManagerSingleton.TopicManager;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The MovingAverageAgent class publishes the mean of the samples in its window,
+ * e.g. {@code MovingAverageAgent window=10} for the average of the last 10 samples.
+ */
+public class MovingAverageAgent extends MovingSumAgent {
+    public MovingAverageAgent(TopicManager manager, List<String> subs, List<String> pubs, Map<String, String> options) {
+        super(manager, subs, pubs, options, "MovingAverageAgent", "avg");
+    }
+
+    @Override
+    protected double result(Window window) {
+        return sum(window) / window.size();
+    }
+}
@@ -0,0 +1,14 @@
+package agents;
+
+import graph.TopicManagerSingleton.TopicManager;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The MovingMaxAgent class publishes the largest sample in its window, e.g. {@code MovingMaxAgent window=5s}.
+ */
+public class MovingMaxAgent extends MovingMinAgent {
+    public MovingMaxAgent(TopicManager manager, List<String> subs, List<String> pubs, Map<String, String> options) {
+        super(manager, subs, pubs, options, "MovingMaxAgent", "max", true);
+    }
+}
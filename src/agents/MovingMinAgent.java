@@ -0,0 +1,53 @@
+package agents;
+
+import graph.TopicManagerSingleton.TopicManager;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The MovingMinAgent class publishes the smallest sample in its window, e.g. {@code MovingMinAgent window=5s}.
+ */
+public class MovingMinAgent extends WindowAgent {
+    private final boolean max;
+
+    public MovingMinAgent(TopicManager manager, List<String> subs, List<String> pubs, Map<String, String> options) {
+        this(manager, subs, pubs, options, "MovingMinAgent", "min", false);
+    }
+
+    protected MovingMinAgent(TopicManager manager, List<String> subs, List<String> pubs, Map<String, String> options,
+                             String name, String function, boolean max) {
+        super(manager, subs, pubs, options, name, function);
+        this.max = max;
+    }
+
+    @Override
+    protected Window newWindow() {
+        return new ExtremeWindow(max);
+    }
+
+    @Override
+    protected void added(Window window, long sequence, double value) {
+        ((ExtremeWindow) window).deque.add(sequence, value);
+    }
+
+    @Override
+    protected void removed(Window window, long sequence, double value) {
+        ((ExtremeWindow) window).deque.remove(sequence);
+    }
+
+    @Override
+    protected double result(Window window) {
+        return ((ExtremeWindow) window).deque.extreme();
+    }
+
+    /**
+     * A window with the monotonic deque of its minimum or maximum.
+     */
+    private static class ExtremeWindow extends Window {
+        final MonotonicDeque deque;
+
+        ExtremeWindow(boolean max) {
+            deque = new MonotonicDeque(max);
+        }
+    }
+}
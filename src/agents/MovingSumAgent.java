@@ -0,0 +1,72 @@
+package agents;
+
+import graph.TopicManagerSingleton.TopicManager;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The MovingSumAgent class publishes the sum of the samples in its window, e.g. {@code MovingSumAgent window=10}.
+ * The sum is kept up to date with each sample that enters or leaves the window. Like in {@link SumAgent}, it is
+ * recomputed from the window every {@link #RESUM_INTERVAL} updates, or when it is not finite, so rounding errors
+ * cannot build up; for windows larger than that, every window-size updates, which keeps the cost amortized O(1).
+ */
+public class MovingSumAgent extends WindowAgent {
+    private static final int RESUM_INTERVAL = 1024;
+
+    /**
+     * A window with its running sum.
+     */
+    private static class SumWindow extends Window {
+        double sum;
+        int updates;
+    }
+
+    public MovingSumAgent(TopicManager manager, List<String> subs, List<String> pubs, Map<String, String> options) {
+        this(manager, subs, pubs, options, "MovingSumAgent", "sum");
+    }
+
+    protected MovingSumAgent(TopicManager manager, List<String> subs, List<String> pubs, Map<String, String> options,
+                             String name, String function) {
+        super(manager, subs, pubs, options, name, function);
+    }
+
+    @Override
+    protected Window newWindow() {
+        return new SumWindow();
+    }
+
+    @Override
+    protected void added(Window window, long sequence, double value) {
+        SumWindow sumWindow = (SumWindow) window;
+        sumWindow.sum += value;
+        sumWindow.updates++;
+    }
+
+    @Override
+    protected void removed(Window window, long sequence, double value) {
+        SumWindow sumWindow = (SumWindow) window;
+        sumWindow.sum -= value;
+        sumWindow.updates++;
+    }
+
+    /**
+     * Returns the sum of the samples in a window.
+     */
+    protected double sum(Window window) {
+        SumWindow sumWindow = (SumWindow) window;
+        if (sumWindow.updates >= Math.max(RESUM_INTERVAL, window.size()) || !Double.isFinite(sumWindow.sum)) {
+            double exact = 0;
+            for (int i = 0; i < window.size(); i++) {
+                exact += window.get(i);
+            }
+            sumWindow.sum = exact;
+            sumWindow.updates = 0;
+        }
+        return sumWindow.sum;
+    }
+
+    @Override
+    protected double result(Window window) {
+        return sum(window);
+    }
+}
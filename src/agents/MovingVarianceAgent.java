@@ -0,0 +1,82 @@
+package agents;
+
+import graph.TopicManagerSingleton.TopicManager;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The MovingVarianceAgent class publishes the sample variance of its window, e.g.
+ * {@code MovingVarianceAgent window=1m}, and 0 while the window holds a single sample.
+ * The mean and the sum of squared deviations are updated with Welford's method as samples enter
+ * and leave the window, which stays accurate where a sum of squares would cancel out. Removing a sample
+ * still leaves a rounding error behind, so like the sum of {@link MovingSumAgent}, both are recomputed from the
+ * window every {@link #RESYNC_INTERVAL} updates, or window-size updates for larger windows, or when they are
+ * not finite.
+ */
+public class MovingVarianceAgent extends WindowAgent {
+    private static final int RESYNC_INTERVAL = 1024;
+
+    /**
+     * A window with its mean and sum of squared deviations.
+     */
+    private static class VarianceWindow extends Window {
+        double mean;
+        double squares;  // sum of squared deviations from the mean
+        int updates;
+    }
+
+    public MovingVarianceAgent(TopicManager manager, List<String> subs, List<String> pubs, Map<String, String> options) {
+        super(manager, subs, pubs, options, "MovingVarianceAgent", "var");
+    }
+
+    @Override
+    protected Window newWindow() {
+        return new VarianceWindow();
+    }
+
+    @Override
+    protected void added(Window window, long sequence, double value) {
+        VarianceWindow w = (VarianceWindow) window;
+        double delta = value - w.mean;
+        w.mean += delta / window.size();
+        w.squares += delta * (value - w.mean);
+        w.updates++;
+    }
+
+    @Override
+    protected void removed(Window window, long sequence, double value) {
+        VarianceWindow w = (VarianceWindow) window;
+        if (window.size() == 0) {
+            w.mean = 0;
+            w.squares = 0;
+            w.updates = 0;
+            return;
+        }
+        double delta = value - w.mean;
+        w.mean -= delta / window.size();
+        w.squares -= delta * (value - w.mean);
+        w.updates++;
+    }
+
+    @Override
+    protected double result(Window window) {
+        VarianceWindow w = (VarianceWindow) window;
+        if (w.updates >= Math.max(RESYNC_INTERVAL, window.size())
+                || !Double.isFinite(w.mean) || !Double.isFinite(w.squares)) {
+            double sum = 0;
+            for (int i = 0; i < window.size(); i++) {
+                sum += window.get(i);
+            }
+            double mean = window.size() == 0 ? 0 : sum / window.size();
+            double squares = 0;
+            for (int i = 0; i < window.size(); i++) {
+                double deviation = window.get(i) - mean;
+                squares += deviation * deviation;
+            }
+            w.mean = mean;
+            w.squares = squares;
+            w.updates = 0;
+        }
+        return window.size() < 2 ? 0 : Math.max(w.squares, 0) / (window.size() - 1);
+    }
+}
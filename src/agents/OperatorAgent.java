@@ -0,0 +1,417 @@
+package agents;
+
+import graph.ChangeSuppression;
+import graph.FunctionalAgent;
+import graph.LazyEquation;
+import graph.LongMap;
+import graph.MemoizingAgent;
+import graph.Message;
+import graph.SuppressingAgent;
+import graph.Topic;
+import graph.TopicManagerSingleton.TopicManager;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.LongFunction;
+
+/**
+ * The OperatorAgent class is the base of the numeric operator agents: it subscribes to the input topics,
+ * keeps the latest value of each input in a slot, and publishes one result to the output topic whenever
+ * an input changes and every input has a value.
+ *
+ * Slots are numbered like the input topics; a topic listed twice fills two slots. Which slots still wait
+ * for their first value is tracked in a bitmask with a count of the missing ones, so readiness is checked
+ * in O(1). Subclasses compute the result from the slots in {@link #result(double[])}; an operator over many
+ * inputs can also keep its result up to date incrementally, in O(1) per changed input, in its own
+ * {@link State} through {@link #slotChanged(State, int, double, double)} and {@link #result(State)}.
+ * Non-numeric input messages are ignored.
+ *
+ * Messages with a key, see {@link Message#key}, are computed independently per key: every key has its own
+ * {@link State} in a {@link LongMap}, and results are published with the key of the inputs they came from.
+ * The equation shows the inputs of the latest key.
+ *
+ * Results can be memoized, see {@link #setCacheCapacity(int)}: they are then kept in a {@link ResultCache}
+ * keyed on the input values, shared by all keys, and computed only for input tuples that are not cached.
+ */
+public abstract class OperatorAgent implements FunctionalAgent, MemoizingAgent, SuppressingAgent {
+    private final TopicManager manager;
+    private final List<String> subs;
+    private final List<String> pubs;
+    private final String name;
+    private final String uuid;
+    private final Topic outTopic;  // Resolved once, results are published here
+    private final Map<String, int[]> slotsOf = new LinkedHashMap<>();  // input topic -> its slots
+    private final int slotCount;
+    private final LongFunction<State> stateFactory;
+    private State unkeyed;  // state of messages without a key, created on first use
+    private final LongMap<State> keyed = new LongMap<>();
+    private State shown;    // state whose inputs the equation shows
+    private final LazyEquation equation;
+    private ResultCache cache;  // null unless memoization is on
+    private final ChangeSuppression suppression = new ChangeSuppression();
+
+    /**
+     * The inputs of one key: the latest value of each slot and which slots still wait for their first value.
+     * Subclasses that keep more per key extend it and create it in {@link #newState(int)}.
+     */
+    protected static class State {
+        final double[] slots;   // slot -> latest value, NaN before the first one
+        final long[] missing;   // bit per slot that has no value yet
+        int missingCount;
+        double published = Double.NaN;  // last result published, compared by change suppression
+
+        protected State(int slotCount) {
+            slots = new double[slotCount];
+            Arrays.fill(slots, Double.NaN);
+            missing = new long[(slotCount + 63) / 64];
+            Arrays.fill(missing, -1L);
+            if (slotCount % 64 != 0) {
+                missing[missing.length - 1] = (1L << (slotCount % 64)) - 1;
+            }
+            missingCount = slotCount;
+        }
+
+        /**
+         * Returns the latest value of each input, ordered like the input topics; must not be modified.
+         */
+        public double[] getSlots() {
+            return slots;
+        }
+    }
+
+    /**
+     * Creates the agent and connects it to its topics.
+     *
+     * @param manager the topic manager owning the topics
+     * @param subs the input topics, one per slot
+     * @param pubs the output topic
+     * @param name the agent's name, e.g. PlusAgent
+     * @param minInputs the least number of inputs the operator takes
+     * @param maxInputs the most number of inputs the operator takes
+     * @param equationParts the text around the operands of the equation, one more than there are inputs
+     * @throws IllegalArgumentException if the number of inputs is out of range or there is not exactly 1 output
+     */
+    protected OperatorAgent(TopicManager manager, List<String> subs, List<String> pubs, String name,
+                            int minInputs, int maxInputs, String[] equationParts) {
+        if (subs.size() < minInputs || subs.size() > maxInputs || pubs.size() != 1) {
+            String inputs = minInputs == maxInputs ? "exactly " + minInputs
+                    : maxInputs == Integer.MAX_VALUE ? "at least " + minInputs
+                    : minInputs + " to " + maxInputs;
+            throw new IllegalArgumentException(name + " requires " + inputs + " input" + (maxInputs == 1 ? "" : "s")
+                    + " and 1 output");
+        }
+        this.manager = manager;
+        this.subs = subs;
+        this.pubs = pubs;
+        this.name = name;
+        this.uuid = UUID.randomUUID().toString();
+        this.slotCount = subs.size();
+        this.stateFactory = key -> newState(slotCount);
+        this.equation = new LazyEquation(equationParts);
+        for (int i = 0; i < subs.size(); i++) {
+            int[] previous = slotsOf.get(subs.get(i));
+            int[] indices = previous == null ? new int[1] : Arrays.copyOf(previous, previous.length + 1);
+            indices[indices.length - 1] = i;
+            slotsOf.put(subs.get(i), indices);
+        }
+
+        // Subscribe to input topics
+        for (String topic : slotsOf.keySet()) {
+            Topic t = manager.getTopic(topic);
+            t.subscribe(this);
+        }
+
+        // Register as publisher for output topics
+        for (String topic : pubs) {
+            Topic t = manager.getTopic(topic);
+            t.addPublisher(this);
+        }
+        this.outTopic = manager.getTopic(pubs.get(0));
+    }
+
+    /**
+     * Returns the equation parts of an infix operator over the given number of inputs,
+     * e.g. {@code "", " + ", " + ", ""} for three inputs.
+     */
+    protected static String[] infix(String symbol, int inputs) {
+        String[] parts = new String[inputs + 1];
+        Arrays.fill(parts, " " + symbol + " ");
+        parts[0] = "";
+        parts[inputs] = "";
+        return parts;
+    }
+
+    /**
+     * Computes the result from the slots, which all hold a value.
+     *
+     * @param slots the latest value of each input, ordered like the input topics; must not be modified
+     * @return the result, or NaN if nothing should be published
+     */
+    protected abstract double result(double[] slots);
+
+    /**
+     * Computes the result of one key. By default the result of its slots.
+     *
+     * @param state the inputs of the key, which all hold a value
+     * @return the result, or NaN if nothing should be published
+     */
+    protected double result(State state) {
+        return result(state.slots);
+    }
+
+    /**
+     * Creates the state of a key that has not been seen yet.
+     *
+     * @param slotCount the number of slots
+     */
+    protected State newState(int slotCount) {
+        return new State(slotCount);
+    }
+
+    /**
+     * Called after a slot of a key received a new value, before the result is computed.
+     *
+     * @param state the inputs of the key
+     * @param slot the slot
+     * @param previous its previous value, NaN if it had none
+     * @param value its new value
+     */
+    protected void slotChanged(State state, int slot, double previous, double value) {
+    }
+
+    private State state(long key) {
+        if (key != Message.NO_KEY) {
+            return keyed.computeIfAbsent(key, stateFactory);
+        }
+        if (unkeyed == null) {
+            unkeyed = newState(slotCount);
+        }
+        return unkeyed;
+    }
+
+    private void set(State state, int slot, double value) {
+        double previous = state.slots[slot];
+        state.slots[slot] = value;
+        long bit = 1L << (slot & 63);
+        if ((state.missing[slot >>> 6] & bit) != 0) {
+            state.missing[slot >>> 6] &= ~bit;
+            state.missingCount--;
+        }
+        if (shown == state) {
+            equation.set(slot, value);
+        }
+        slotChanged(state, slot, previous, value);
+    }
+
+    /**
+     * Makes the equation show the inputs of a key.
+     */
+    private void show(State state) {
+        if (shown != state) {
+            shown = state;
+            for (int i = 0; i < slotCount; i++) {
+                equation.set(i, state.slots[i]);
+            }
+        }
+    }
+
+    /**
+     * Stores a new value of an input topic in its slots.
+     *
+     * @return false if the value is not a number and was ignored
+     */
+    private boolean apply(State state, String topic, double value) {
+        int[] indices = slotsOf.get(topic);
+        if (indices == null || Double.isNaN(value)) {
+            return false;
+        }
+        show(state);
+        for (int slot : indices) {
+            set(state, slot, value);
+        }
+        return true;
+    }
+
+    /**
+     * Computes the result of a key, or takes it from the cache if its inputs are cached.
+     */
+    private double compute(State state) {
+        if (cache == null) {
+            return result(state);
+        }
+        int entry = cache.lookup(state.slots);
+        if (entry >= 0) {
+            return cache.result(entry);
+        }
+        double result = result(state);
+        cache.put(state.slots, result);
+        return result;
+    }
+
+    private void publishResult(State state, long key) {
+        if (state.missingCount > 0) {
+            return;
+        }
+        double result = compute(state);
+        if (!Double.isNaN(result) && !suppression.isUnchanged(state.published, result)) {
+            state.published = result;
+            outTopic.publish(new Message(result, key));
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getUUID() {
+        return uuid;
+    }
+
+    /**
+     * Forgets the inputs of every key.
+     */
+    @Override
+    public void reset() {
+        unkeyed = null;
+        keyed.clear();
+        shown = null;
+        equation.clear();
+    }
+
+    @Override
+    public Message getEquation() {
+        return equation.get();
+    }
+
+    @Override
+    public void callback(String topic, Message msg) {
+        try {
+            State state = state(msg.key);
+            if (apply(state, topic, msg.asDouble)) {
+                publishResult(state, msg.key);
+            }
+        } catch (Exception e) {
+            System.err.println("Error processing message in " + name + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Applies a whole batch of input values and publishes a single result for each run of messages
+     * with the same key.
+     */
+    @Override
+    public void callbackBatch(String[] topics, Message[] msgs, int count) {
+        try {
+            State state = null;
+            long key = Message.NO_KEY;
+            boolean changed = false;
+            for (int i = 0; i < count; i++) {
+                if (state == null || msgs[i].key != key) {
+                    if (changed) {
+                        publishResult(state, key);
+                    }
+                    key = msgs[i].key;
+                    state = state(key);
+                    changed = false;
+                }
+                changed |= apply(state, topics[i], msgs[i].asDouble);
+            }
+            if (changed) {
+                publishResult(state, key);
+            }
+        } catch (Exception e) {
+            System.err.println("Error processing batch in " + name + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Keeps the results of the given number of recent input tuples, evicting the least recently used
+     * ones approximately. 0 turns memoization off. The cache persists across resets.
+     */
+    @Override
+    public void setCacheCapacity(int capacity) {
+        cache = capacity > 0 ? new ResultCache(slotCount, capacity) : null;
+    }
+
+    @Override
+    public long getCacheHits() {
+        ResultCache current = cache;
+        return current != null ? current.hits() : 0;
+    }
+
+    @Override
+    public long getCacheMisses() {
+        ResultCache current = cache;
+        return current != null ? current.misses() : 0;
+    }
+
+    @Override
+    public void setChangeSuppression(double epsilon) {
+        suppression.setEpsilon(epsilon);
+    }
+
+    @Override
+    public long getSuppressedCount() {
+        return suppression.getSuppressedCount();
+    }
+
+    /**
+     * An operator with a single input topic computes each result from one message alone.
+     */
+    @Override
+    public boolean isStateless() {
+        return slotsOf.size() == 1;
+    }
+
+    @Override
+    public List<String> getInputTopics() {
+        return subs;
+    }
+
+    @Override
+    public List<String> getOutputTopics() {
+        return pubs;
+    }
+
+    /**
+     * Applies the inputs that differ from the slots of messages without a key and computes the result.
+     */
+    @Override
+    public double evaluate(double[] inputs) {
+        State state = state(Message.NO_KEY);
+        show(state);
+        for (int i = 0; i < inputs.length; i++) {
+            if (Double.compare(inputs[i], state.slots[i]) != 0) {
+                set(state, i, inputs[i]);
+            }
+        }
+        if (state.missingCount > 0) {
+            return Double.NaN;
+        }
+        double result = compute(state);
+        if (Double.isNaN(result) || suppression.isUnchanged(state.published, result)) {
+            return Double.NaN;
+        }
+        state.published = result;
+        return result;
+    }
+
+    @Override
+    public void close() {
+        // Unsubscribe from all topics
+        for (String topic : slotsOf.keySet()) {
+            Topic t = manager.getTopic(topic);
+            t.unsubscribe(this);
+        }
+
+        // Remove as publisher from output topics
+        for (String topic : pubs) {
+            Topic t = manager.getTopic(topic);
+            t.removePublisher(this);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package agents;
+
+import graph.TopicManagerSingleton.TopicManager;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * The RandomWalkAgent class publishes a random walk, e.g. {@code RandomWalkAgent rate=100 start=20 step=0.5}:
+ * every value differs from the previous one by a normally distributed step with the given standard deviation.
+ * start defaults to 0 and step to 1. With a seed option the walk is the same on every run.
+ */
+public class RandomWalkAgent extends GeneratorAgent {
+    private final double start;
+    private final double step;
+    private final Long seed;  // null for a different walk every time
+    private Random random;
+    private double value;
+
+    public RandomWalkAgent(TopicManager manager, List<String> subs, List<String> pubs, Map<String, String> options) {
+        super(manager, subs, pubs, options, "RandomWalkAgent");
+        try {
+            this.start = Double.parseDouble(options.getOrDefault("start", "0"));
+            this.step = Double.parseDouble(options.getOrDefault("step", "1"));
+            this.seed = options.containsKey("seed") ? Long.valueOf(options.get("seed")) : null;
+        } catch (NumberFormatException e) {
+            close();
+            throw new IllegalArgumentException("RandomWalkAgent start, step and seed must be numbers");
+        }
+        restart();
+    }
+
+    @Override
+    protected void restarted() {
+        restart();
+    }
+
+    private void restart() {
+        random = seed != null ? new Random(seed) : new Random();
+        value = start;
+    }
+
+    @Override
+    protected double next(long index) {
+        if (index > 0) {
+            value += random.nextGaussian() * step;
+        }
+        return value;
+    }
+}
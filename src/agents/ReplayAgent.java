@@ -0,0 +1,103 @@
+package agents;
+
+import graph.TopicManagerSingleton.TopicManager;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The ReplayAgent class publishes the values recorded in a file, e.g. {@code ReplayAgent file=samples.txt rate=50},
+ * one value per line; blank lines and lines starting with # are skipped. The file is read once, when the agent
+ * is created, and replayed from the start again when it ends, unless {@code loop=false}.
+ * Files are looked up in the data_files folder only, and may hold at most {@link #MAX_VALUES} values.
+ */
+public class ReplayAgent extends GeneratorAgent {
+    private static final Path DATA_DIR = Paths.get(System.getProperty("user.dir"), "data_files");
+    private static final long MAX_FILE_BYTES = 16 * 1024 * 1024;
+    static final int MAX_VALUES = 1_000_000;
+
+    private final double[] values;
+    private final boolean loop;
+
+    public ReplayAgent(TopicManager manager, List<String> subs, List<String> pubs, Map<String, String> options) {
+        super(manager, subs, pubs, options, "ReplayAgent");
+        try {
+            this.values = read(options.get("file"));
+        } catch (IllegalArgumentException e) {
+            close();
+            throw e;
+        }
+        this.loop = !"false".equalsIgnoreCase(options.get("loop"));
+    }
+
+    private static double[] read(String file) {
+        if (file == null) {
+            throw new IllegalArgumentException("ReplayAgent requires a file, e.g. file=samples.txt");
+        }
+        double[] values = new double[16];
+        int count = 0;
+        int lineNumber = 0;
+        try (BufferedReader reader = Files.newBufferedReader(resolve(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                if (count == MAX_VALUES) {
+                    throw new IllegalArgumentException("Replay file " + file + " holds more than " + MAX_VALUES
+                            + " values");
+                }
+                if (count == values.length) {
+                    values = Arrays.copyOf(values, count * 2);
+                }
+                values[count++] = Double.parseDouble(line);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot read replay file " + file);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number on line " + lineNumber + " of replay file " + file);
+        }
+        if (count == 0) {
+            throw new IllegalArgumentException("Replay file " + file + " holds no values");
+        }
+        return Arrays.copyOf(values, count);
+    }
+
+    /**
+     * Finds a replay file in the data folder, refusing names that lead outside of it, and files that are not
+     * regular files or too large to read.
+     */
+    private static Path resolve(String file) throws IOException {
+        Path name = Paths.get(file);
+        if (name.isAbsolute() || file.contains("..")) {
+            throw new IllegalArgumentException("Replay file must be a name in data_files, not " + file);
+        }
+        Path path = DATA_DIR.resolve(name).normalize();
+        if (!path.startsWith(DATA_DIR) || !Files.isRegularFile(path)) {
+            throw new IllegalArgumentException("No replay file " + file + " in data_files");
+        }
+        if (!path.toRealPath().startsWith(DATA_DIR.toRealPath())) {  // A link to somewhere else
+            throw new IllegalArgumentException("Replay file must be a name in data_files, not " + file);
+        }
+        if (Files.size(path) > MAX_FILE_BYTES) {
+            throw new IllegalArgumentException("Replay file " + file + " is larger than "
+                    + MAX_FILE_BYTES / (1024 * 1024) + " MB");
+        }
+        return path;
+    }
+
+    @Override
+    protected double next(long index) {
+        if (!loop && index >= values.length) {
+            return Double.NaN;
+        }
+        return values[(int) (index % values.length)];
+    }
+}
@@ -0,0 +1,122 @@
+package agents;
+
+/**
+ * The ResultCache class remembers the results of an operator for recent tuples of input values.
+ *
+ * Tuples are stored as raw doubles in one flat array, so a lookup neither boxes nor allocates. The cache is
+ * 4-way set associative: a tuple's hash picks a set of 4 entries, and a miss replaces an entry of that set
+ * with the clock algorithm, i.e. the hand skips, and clears the mark of, entries used since it last passed
+ * them, which approximates evicting the least recently used entry. Inputs are compared by their bits,
+ * so 0.0 and -0.0 are different tuples. Not thread-safe, like the agent owning it.
+ */
+final class ResultCache {
+    private static final int WAYS = 4;
+
+    private final int arity;
+    private final int setMask;
+    private final double[] inputs;    // entry -> its tuple, arity values per entry
+    private final double[] results;   // entry -> its result
+    private final byte[] state;       // entry -> EMPTY, USED (marked since the hand passed) or IDLE
+    private final byte[] hands;       // set -> way the clock hand points at
+    private volatile long hits;       // written by the owning agent's thread only
+    private volatile long misses;
+
+    private static final byte EMPTY = 0;
+    private static final byte IDLE = 1;
+    private static final byte USED = 2;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param arity the number of values in a tuple
+     * @param capacity the least number of tuples to keep room for; rounded up to a power of two
+     */
+    ResultCache(int arity, int capacity) {
+        int needed = (capacity + WAYS - 1) / WAYS;
+        int sets = needed <= 1 ? 1 : Integer.highestOneBit(needed - 1) << 1;
+        this.arity = arity;
+        this.setMask = sets - 1;
+        this.inputs = new double[sets * WAYS * arity];
+        this.results = new double[sets * WAYS];
+        this.state = new byte[sets * WAYS];
+        this.hands = new byte[sets];
+    }
+
+    /**
+     * Returns the number of tuples the cache holds at most.
+     */
+    int capacity() {
+        return results.length;
+    }
+
+    /**
+     * Looks a tuple up and counts the hit or miss.
+     * After a miss the caller computes the result and stores it with {@link #put(double[], double)}.
+     *
+     * @return the entry holding the tuple's result, see {@link #result(int)}, or -1 if there is none
+     */
+    int lookup(double[] tuple) {
+        int first = set(tuple) * WAYS;
+        for (int entry = first; entry < first + WAYS; entry++) {
+            if (state[entry] != EMPTY && matches(entry, tuple)) {
+                state[entry] = USED;
+                hits++;
+                return entry;
+            }
+        }
+        misses++;
+        return -1;
+    }
+
+    /**
+     * Returns the result remembered in an entry found by {@link #lookup(double[])}.
+     */
+    double result(int entry) {
+        return results[entry];
+    }
+
+    /**
+     * Remembers the result of a tuple that was just looked up in vain.
+     */
+    void put(double[] tuple, double result) {
+        int set = set(tuple);
+        int first = set * WAYS;
+        int hand = hands[set];
+        while (state[first + hand] == USED) {
+            state[first + hand] = IDLE;  // second chance
+            hand = (hand + 1) % WAYS;
+        }
+        int entry = first + hand;
+        System.arraycopy(tuple, 0, inputs, entry * arity, arity);
+        results[entry] = result;
+        state[entry] = USED;
+        hands[set] = (byte) ((hand + 1) % WAYS);
+    }
+
+    long hits() {
+        return hits;
+    }
+
+    long misses() {
+        return misses;
+    }
+
+    private boolean matches(int entry, double[] tuple) {
+        int base = entry * arity;
+        for (int i = 0; i < arity; i++) {
+            if (Double.doubleToRawLongBits(inputs[base + i]) != Double.doubleToRawLongBits(tuple[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int set(double[] tuple) {
+        long h = 0x9E3779B97F4A7C15L;
+        for (double value : tuple) {
+            h = (h ^ Double.doubleToRawLongBits(value)) * 0xBF58476D1CE4E5B9L;
+            h ^= h >>> 31;
+        }
+        return (int) (h ^ (h >>> 32)) & setMask;
+    }
+}
@@ -0,0 +1,64 @@
+package agents;
+
+import graph.TopicManagerSingleton.TopicManager;
+import java.util.List;
+
+/**
+ * The SumAgent class adds up any number of inputs, e.g. 64 topics listed on its input line.
+ * The sum is kept up to date with the difference of each changed input, so an update costs O(1)
+ * however many inputs there are. It is recomputed from all inputs every {@link #RESUM_INTERVAL}
+ * updates, or when it is not finite, so rounding errors and infinities cannot build up.
+ */
+public class SumAgent extends OperatorAgent {
+    private static final int RESUM_INTERVAL = 1024;
+
+    /**
+     * The inputs of one key with their running sum.
+     */
+    private static class SumState extends State {
+        double sum;
+        int updates;
+
+        SumState(int slotCount) {
+            super(slotCount);
+        }
+    }
+
+    public SumAgent(TopicManager manager, List<String> subs, List<String> pubs) {
+        super(manager, subs, pubs, "SumAgent", 1, Integer.MAX_VALUE, infix("+", subs.size()));
+    }
+
+    @Override
+    protected State newState(int slotCount) {
+        return new SumState(slotCount);
+    }
+
+    @Override
+    protected void slotChanged(State state, int slot, double previous, double value) {
+        SumState sumState = (SumState) state;
+        sumState.sum += Double.isNaN(previous) ? value : value - previous;
+        sumState.updates++;
+    }
+
+    @Override
+    protected double result(State state) {
+        SumState sumState = (SumState) state;
+        if (sumState.updates >= RESUM_INTERVAL || !Double.isFinite(sumState.sum)) {
+            sumState.sum = result(state.getSlots());
+            sumState.updates = 0;
+        }
+        return sumState.sum;
+    }
+
+    /**
+     * Adds up all inputs.
+     */
+    @Override
+    protected double result(double[] slots) {
+        double exact = 0;
+        for (double value : slots) {
+            exact += value;
+        }
+        return exact;
+    }
+}
@@ -0,0 +1,346 @@
+package agents;
+
+import graph.ChangeSuppression;
+import graph.LazyEquation;
+import graph.LongMap;
+import graph.Message;
+import graph.SuppressingAgent;
+import graph.Topic;
+import graph.TopicManagerSingleton.TopicManager;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.LongFunction;
+
+/**
+ * The WindowAgent class is the base of the sliding-window agents: it keeps the recent samples of its input
+ * topic and publishes an aggregate of them to its output topic after every sample.
+ *
+ * The window is given in the window option, either as a number of samples, e.g. {@code window=10}, or as
+ * a duration, e.g. {@code window=500ms}, {@code window=5s} or {@code window=1m}, measured from the arrival
+ * of each sample. Samples are kept in primitive ring buffers; a count window allocates them once, a time
+ * window doubles them when they fill up. Subclasses keep their aggregate up to date through
+ * {@link #added(Window, long, double)} and {@link #removed(Window, long, double)}, so a sample costs
+ * amortized O(1). Non-numeric input messages are ignored.
+ *
+ * Messages with a key, see {@link Message#key}, have a window per key, kept in a {@link LongMap}, and results
+ * are published with their key.
+ */
+public abstract class WindowAgent implements SuppressingAgent {
+    /** Option holding the window size */
+    public static final String WINDOW_OPTION = "window";
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final TopicManager manager;
+    private final String input;
+    private final List<String> pubs;
+    private final String name;
+    private final String uuid;
+    private final Topic outTopic;
+    private final int maxCount;       // samples kept by a count window, 0 for a time window
+    private final long spanNanos;     // age of the oldest sample kept by a time window
+    private final LongFunction<Window> windowFactory = key -> newWindow();
+    private Window unkeyed;           // window of messages without a key, created on first use
+    private final LongMap<Window> keyed = new LongMap<>();
+    private final LazyEquation equation;
+    private final ChangeSuppression suppression = new ChangeSuppression();
+
+    /**
+     * The samples of one key, in ring buffers. Subclasses keep their aggregate in a subclass of it,
+     * created in {@link #newWindow()}.
+     */
+    protected static class Window {
+        private double[] values;      // ring buffer of the samples in the window
+        private long[] times;         // arrival of each sample, only for a time window
+        private int head;             // index of the oldest sample
+        private int count;
+        private long sequence;        // number of the next sample
+        private double published = Double.NaN;  // last result published, compared by change suppression
+
+        /**
+         * Returns the number of samples in the window.
+         */
+        public int size() {
+            return count;
+        }
+
+        /**
+         * Returns a sample of the window.
+         *
+         * @param index the position of the sample, 0 for the oldest
+         */
+        public double get(int index) {
+            return values[(head + index) % values.length];
+        }
+    }
+
+    /**
+     * Creates the agent and connects it to its topics.
+     *
+     * @param manager the topic manager owning the topics
+     * @param subs the input topic
+     * @param pubs the output topic
+     * @param options the agent's options, with the window
+     * @param name the agent's name, e.g. MovingAverageAgent
+     * @param function the short name of the aggregate shown in the equation, e.g. avg
+     * @throws IllegalArgumentException if there is not exactly 1 input and 1 output or the window is invalid
+     */
+    protected WindowAgent(TopicManager manager, List<String> subs, List<String> pubs, Map<String, String> options,
+                          String name, String function) {
+        if (subs.size() != 1 || pubs.size() != 1) {
+            throw new IllegalArgumentException(name + " requires exactly 1 input and 1 output");
+        }
+        String window = options.get(WINDOW_OPTION);
+        if (window == null) {
+            throw new IllegalArgumentException(name + " requires a window, e.g. window=10 or window=5s");
+        }
+        long span = parseSpan(window);
+        if (span < 0) {
+            this.maxCount = parseCount(window, name);
+            this.spanNanos = 0;
+        } else {
+            this.maxCount = 0;
+            this.spanNanos = span;
+        }
+        this.manager = manager;
+        this.input = subs.get(0);
+        this.pubs = pubs;
+        this.name = name;
+        this.uuid = UUID.randomUUID().toString();
+        this.equation = new LazyEquation(function + "(" + input + ", " + window + ") = ", "");
+
+        manager.getTopic(input).subscribe(this);
+        for (String topic : pubs) {
+            manager.getTopic(topic).addPublisher(this);
+        }
+        this.outTopic = manager.getTopic(pubs.get(0));
+    }
+
+    /**
+     * Returns the duration of a time window in nanoseconds, or -1 if the window is not a duration.
+     */
+    private static long parseSpan(String window) {
+        long unit;
+        String amount;
+        if (window.endsWith("ms")) {
+            unit = 1_000_000L;
+            amount = window.substring(0, window.length() - 2);
+        } else if (window.endsWith("s")) {
+            unit = 1_000_000_000L;
+            amount = window.substring(0, window.length() - 1);
+        } else if (window.endsWith("m")) {
+            unit = 60_000_000_000L;
+            amount = window.substring(0, window.length() - 1);
+        } else {
+            return -1;
+        }
+        try {
+            double span = Double.parseDouble(amount) * unit;
+            if (span > 0 && span < Long.MAX_VALUE) {
+                return (long) span;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Invalid window duration: " + window);
+    }
+
+    private static int parseCount(String window, String name) {
+        try {
+            int count = Integer.parseInt(window);
+            if (count > 0) {
+                return count;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException(name + " window must be a positive number of samples or a duration "
+                + "like 500ms, 5s or 1m, not " + window);
+    }
+
+    /**
+     * Creates the window of a key that has not been seen yet.
+     */
+    protected Window newWindow() {
+        return new Window();
+    }
+
+    /**
+     * Called after a sample entered a window.
+     *
+     * @param window the window
+     * @param sequence the number of the sample, increasing by 1 with every sample of the window
+     * @param value its value
+     */
+    protected abstract void added(Window window, long sequence, double value);
+
+    /**
+     * Called after a sample left a window, always the oldest one.
+     *
+     * @param window the window
+     * @param sequence the number of the sample
+     * @param value its value
+     */
+    protected abstract void removed(Window window, long sequence, double value);
+
+    /**
+     * Computes the aggregate of the samples in a window, which holds at least one.
+     *
+     * @return the result, or NaN if nothing should be published
+     */
+    protected abstract double result(Window window);
+
+    private Window window(long key) {
+        Window window;
+        if (key != Message.NO_KEY) {
+            window = keyed.computeIfAbsent(key, windowFactory);
+        } else {
+            if (unkeyed == null) {
+                unkeyed = newWindow();
+            }
+            window = unkeyed;
+        }
+        if (window.values == null) {
+            window.values = new double[maxCount > 0 ? maxCount : INITIAL_CAPACITY];
+            window.times = maxCount > 0 ? null : new long[INITIAL_CAPACITY];
+        }
+        return window;
+    }
+
+    private boolean apply(Window window, double value, long now) {
+        if (Double.isNaN(value)) {
+            return false;
+        }
+        if (maxCount > 0) {
+            if (window.count == maxCount) {
+                removeOldest(window);
+            }
+        } else {
+            while (window.count > 0 && now - window.times[window.head] > spanNanos) {
+                removeOldest(window);
+            }
+            if (window.count == window.values.length) {
+                grow(window);
+            }
+            window.times[(window.head + window.count) % window.times.length] = now;
+        }
+        window.values[(window.head + window.count) % window.values.length] = value;
+        window.count++;
+        added(window, window.sequence++, value);
+        return true;
+    }
+
+    private void removeOldest(Window window) {
+        double value = window.values[window.head];
+        window.head = (window.head + 1) % window.values.length;
+        window.count--;
+        removed(window, window.sequence - window.count - 1, value);
+    }
+
+    private static void grow(Window window) {
+        int length = window.values.length;
+        double[] newValues = new double[length * 2];
+        long[] newTimes = new long[length * 2];
+        for (int i = 0; i < window.count; i++) {
+            newValues[i] = window.values[(window.head + i) % length];
+            newTimes[i] = window.times[(window.head + i) % length];
+        }
+        window.values = newValues;
+        window.times = newTimes;
+        window.head = 0;
+    }
+
+    private void publishResult(Window window, long key) {
+        double result = result(window);
+        equation.set(0, result);
+        if (!Double.isNaN(result) && !suppression.isUnchanged(window.published, result)) {
+            window.published = result;
+            outTopic.publish(new Message(result, key));
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getUUID() {
+        return uuid;
+    }
+
+    /**
+     * Drops the samples of every key.
+     */
+    @Override
+    public void reset() {
+        unkeyed = null;
+        keyed.clear();
+        equation.clear();
+    }
+
+    @Override
+    public Message getEquation() {
+        return equation.get();
+    }
+
+    @Override
+    public void setChangeSuppression(double epsilon) {
+        suppression.setEpsilon(epsilon);
+    }
+
+    @Override
+    public long getSuppressedCount() {
+        return suppression.getSuppressedCount();
+    }
+
+    @Override
+    public void callback(String topic, Message msg) {
+        try {
+            Window window = window(msg.key);
+            if (input.equals(topic) && apply(window, msg.asDouble, System.nanoTime())) {
+                publishResult(window, msg.key);
+            }
+        } catch (Exception e) {
+            System.err.println("Error processing message in " + name + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Adds a whole batch of samples to the windows and publishes a single result for each run of messages
+     * with the same key.
+     */
+    @Override
+    public void callbackBatch(String[] topics, Message[] msgs, int count) {
+        try {
+            long now = System.nanoTime();
+            Window window = null;
+            long key = Message.NO_KEY;
+            boolean changed = false;
+            for (int i = 0; i < count; i++) {
+                if (window == null || msgs[i].key != key) {
+                    if (changed) {
+                        publishResult(window, key);
+                    }
+                    key = msgs[i].key;
+                    window = window(key);
+                    changed = false;
+                }
+                changed |= input.equals(topics[i]) && apply(window, msgs[i].asDouble, now);
+            }
+            if (changed) {
+                publishResult(window, key);
+            }
+        } catch (Exception e) {
+            System.err.println("Error processing batch in " + name + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        manager.getTopic(input).unsubscribe(this);
+        for (String topic : pubs) {
+            manager.getTopic(topic).removePublisher(this);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package configs;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The ChainFusion class finds the agents of a configuration that can run on the thread of the agent before them.
+ *
+ * An agent is fusible when every one of its input topics is published by the same single other agent and has
+ * no other subscriber, so the agent only ever reacts to that agent's results, and when its block sets no queue
+ * options of its own. Neither the agent nor the one feeding it may ask for several workers: the instances of a
+ * replicated agent publish from several threads at once, which would all contend for the fused agent.
+ * Following these links from agent to agent gives the linear chains of the graph; every chain then runs as one
+ * task on the mailbox of its first agent. A ring of fusible agents would have no mailbox at all, so one agent
+ * of every ring keeps its own.
+ */
+final class ChainFusion {
+    private ChainFusion() {
+    }
+
+    /**
+     * Decides for every block whether its agent is fused into the agent that feeds it.
+     *
+     * @param specs the agent blocks, in configuration order
+     * @param globalOptions the configuration-wide options, which blocks without options of their own have
+     * @return for every block, whether its agent is fused
+     */
+    static boolean[] fusible(List<ConfigParser.AgentInfo> specs, Map<String, String> globalOptions) {
+        int n = specs.size();
+        Map<String, List<Integer>> publishers = new HashMap<>();
+        Map<String, List<Integer>> subscribers = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            for (String pub : new LinkedHashSet<>(specs.get(i).getPubs())) {
+                publishers.computeIfAbsent(pub, k -> new ArrayList<>()).add(i);
+            }
+            for (String sub : new LinkedHashSet<>(specs.get(i).getSubs())) {
+                subscribers.computeIfAbsent(sub, k -> new ArrayList<>()).add(i);
+            }
+        }
+
+        // upstream[i] is the only agent feeding agent i, or -1 if i keeps its own mailbox
+        int[] upstream = new int[n];
+        for (int i = 0; i < n; i++) {
+            upstream[i] = feeder(i, specs, globalOptions, publishers, subscribers);
+        }
+
+        // Break every ring of fused agents at the agent reached first
+        int[] state = new int[n];  // 0 unvisited, 1 on the current path, 2 done
+        for (int i = 0; i < n; i++) {
+            int v = i;
+            List<Integer> path = new ArrayList<>();
+            while (v >= 0 && state[v] == 0) {
+                state[v] = 1;
+                path.add(v);
+                v = upstream[v];
+            }
+            if (v >= 0 && state[v] == 1) {
+                upstream[v] = -1;
+            }
+            for (int u : path) {
+                state[u] = 2;
+            }
+        }
+
+        boolean[] fused = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            fused[i] = upstream[i] >= 0;
+        }
+        return fused;
+    }
+
+    private static int feeder(int index, List<ConfigParser.AgentInfo> specs, Map<String, String> globalOptions,
+                              Map<String, List<Integer>> publishers, Map<String, List<Integer>> subscribers) {
+        ConfigParser.AgentInfo spec = specs.get(index);
+        if (!spec.getOptions().equals(globalOptions) || GenericConfig.workers(spec) > 1) {
+            return -1;
+        }
+        int feeder = -1;
+        Set<String> inputs = new LinkedHashSet<>(spec.getSubs());
+        for (String sub : inputs) {
+            List<Integer> from = publishers.get(sub);
+            List<Integer> to = subscribers.get(sub);
+            if (from == null || from.size() != 1 || to.size() != 1) {
+                return -1;
+            }
+            if (feeder >= 0 && from.get(0) != feeder) {
+                return -1;
+            }
+            feeder = from.get(0);
+        }
+        if (feeder == index || feeder >= 0 && GenericConfig.workers(specs.get(feeder)) > 1) {
+            return -1;
+        }
+        return feeder;
+    }
+}
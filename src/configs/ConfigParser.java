@@ -0,0 +1,401 @@
+package configs;
+
+import graph.Agent;
+import graph.OverflowPolicy;
+import graph.SourceAgent;
+import graph.TopicManagerSingleton.TopicManager;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The ConfigParser class reads configuration files line by line into structured data.
+ *
+ * A configuration consists of three-line agent blocks (agent type with options, input topics, output topics)
+ * and of '@' lines holding configuration-wide options. Blank lines and lines starting with '#' are ignored.
+ * Everything is validated while reading, and errors are reported with the line number they occur on.
+ *
+ * Agent types without a package name are looked up in the agents package. The constructor of every agent type
+ * is resolved once and cached as a MethodHandle. Agent types that take options, such as the formula of an
+ * ExpressionAgent, declare a constructor with an additional options map.
+ */
+public class ConfigParser {
+    /** Prefix of lines holding configuration-wide options */
+    public static final String DIRECTIVE_PREFIX = "@";
+    /** Prefix of comment lines */
+    public static final String COMMENT_PREFIX = "#";
+    /** Package searched for agent types given without a package name */
+    public static final String DEFAULT_AGENT_PACKAGE = "agents";
+
+    private static final MethodType AGENT_CONSTRUCTOR = MethodType.methodType(void.class, TopicManager.class,
+            List.class, List.class);
+    private static final MethodType AGENT_CONSTRUCTOR_WITH_OPTIONS = AGENT_CONSTRUCTOR.appendParameterTypes(Map.class);
+    private static final Map<String, MethodHandle> constructors = new ConcurrentHashMap<>();
+    private static final Set<String> sourceTypes = ConcurrentHashMap.newKeySet();  // agent types that are SourceAgents
+    /** Options that replicate an agent, which a SourceAgent cannot use: it publishes by itself */
+    private static final List<String> REPLICA_OPTIONS = Arrays.asList("workers", "route");
+    /** Topic line of an agent without topics on that side, e.g. the inputs of a generator */
+    private static final String NO_TOPICS = "-";
+
+    /**
+     * Parses a configuration from a reader.
+     *
+     * @param reader The reader positioned at the start of the configuration
+     * @return A ConfigInfo object containing the parsed configuration
+     * @throws IOException If there's an error reading from the reader
+     * @throws IllegalArgumentException If the configuration is invalid, with the offending line number
+     */
+    public static ConfigInfo parseConfig(BufferedReader reader) throws IOException {
+        Map<String, String> globalOptions = new HashMap<>();
+        Map<String, String> defaults = null;  // immutable copy of globalOptions shared by blocks without options
+        List<AgentInfo> agents = new ArrayList<>();
+        String[] block = new String[3];
+        int blockLine = 0;
+        int filled = 0;
+        int lineNumber = 0;
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith(COMMENT_PREFIX)) {
+                continue;
+            }
+            if (trimmed.startsWith(DIRECTIVE_PREFIX)) {
+                if (filled != 0) {
+                    throw error(lineNumber, "Options line inside the agent block starting on line " + blockLine);
+                }
+                parseOptions(trimmed.substring(DIRECTIVE_PREFIX.length()).trim().split("\\s+"), 0, globalOptions,
+                        lineNumber);
+                validateOptions(globalOptions, lineNumber);
+                defaults = null;
+                continue;
+            }
+
+            if (filled == 0) {
+                blockLine = lineNumber;
+            }
+            block[filled++] = trimmed;
+            if (filled == 3) {
+                if (defaults == null) {
+                    defaults = Collections.unmodifiableMap(new HashMap<>(globalOptions));
+                }
+                agents.add(parseAgent(block, blockLine, defaults));
+                filled = 0;
+            }
+        }
+
+        if (filled != 0) {
+            throw error(blockLine, "Incomplete agent block, expected agent type, input topics and output topics");
+        }
+        return new ConfigInfo(globalOptions, agents);
+    }
+
+    /**
+     * Parses one three-line agent block.
+     */
+    private static AgentInfo parseAgent(String[] block, int line, Map<String, String> defaults) {
+        String className = block[0];
+        Map<String, String> options = defaults;
+        Map<String, String> own = Collections.emptyMap();
+        if (hasWhitespace(className)) {
+            String[] header = className.split("\\s+");
+            className = header[0];
+            own = new HashMap<>();
+            parseOptions(header, 1, own, line);
+            options = new HashMap<>(defaults);
+            options.putAll(own);
+            validateOptions(options, line);
+        }
+
+        MethodHandle constructor = constructorOf(className, line);
+        if (sourceTypes.contains(className)) {
+            for (String option : REPLICA_OPTIONS) {
+                if (own.containsKey(option)) {
+                    throw error(line, className + " publishes by itself and cannot take the " + option + " option");
+                }
+            }
+            if (REPLICA_OPTIONS.stream().anyMatch(options::containsKey)) {
+                options = new HashMap<>(options);  // Nor does it take them from the configuration-wide options
+                options.keySet().removeAll(REPLICA_OPTIONS);
+            }
+        }
+        List<String> subs = parseTopics(block[1], line + 1);
+        List<String> pubs = parseTopics(block[2], line + 2);
+        return new AgentInfo(line, className, constructor, options, subs, pubs);
+    }
+
+    /**
+     * Parses a comma separated list of topic names, or {@value #NO_TOPICS} for none.
+     */
+    private static List<String> parseTopics(String line, int lineNumber) {
+        if (line.equals(NO_TOPICS)) {
+            return Collections.emptyList();
+        }
+        String[] names = line.split(",", -1);
+        for (int i = 0; i < names.length; i++) {
+            names[i] = names[i].trim();
+            if (names[i].isEmpty()) {
+                throw error(lineNumber, "Empty topic name");
+            }
+            if (hasWhitespace(names[i])) {
+                throw error(lineNumber, "Topic name contains whitespace: '" + names[i] + "'");
+            }
+        }
+        return Collections.unmodifiableList(Arrays.asList(names));
+    }
+
+    private static boolean hasWhitespace(String s) {
+        for (int c = 0; c < s.length(); c++) {
+            if (Character.isWhitespace(s.charAt(c))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses {@code key=value} options, starting at the given token, into the options map.
+     */
+    private static void parseOptions(String[] tokens, int from, Map<String, String> options, int lineNumber) {
+        for (int i = from; i < tokens.length; i++) {
+            if (tokens[i].isEmpty()) {
+                continue;
+            }
+            String[] keyValue = tokens[i].split("=", 2);
+            if (keyValue.length != 2 || keyValue[0].isEmpty()) {
+                throw error(lineNumber, "Invalid option: " + tokens[i]);
+            }
+            options.put(keyValue[0].toLowerCase(), keyValue[1]);
+        }
+    }
+
+    /**
+     * Checks the values of the options GenericConfig understands.
+     */
+    private static void validateOptions(Map<String, String> options, int lineNumber) {
+        try {
+            if (options.containsKey("capacity") && Integer.parseInt(options.get("capacity")) < 1) {
+                throw error(lineNumber, "capacity must be at least 1");
+            }
+            if (options.containsKey("batch") && Integer.parseInt(options.get("batch")) < 1) {
+                throw error(lineNumber, "batch must be at least 1");
+            }
+            if (options.containsKey("fanout") && Integer.parseInt(options.get("fanout")) < 1) {
+                throw error(lineNumber, "fanout must be at least 1");
+            }
+            if (options.containsKey("fanout-lanes") && Integer.parseInt(options.get("fanout-lanes")) < 1) {
+                throw error(lineNumber, "fanout-lanes must be at least 1");
+            }
+            if (options.containsKey("fanout-capacity") && Integer.parseInt(options.get("fanout-capacity")) < 1) {
+                throw error(lineNumber, "fanout-capacity must be at least 1");
+            }
+            if (options.containsKey("memo") && Integer.parseInt(options.get("memo")) < 0) {
+                throw error(lineNumber, "memo must not be negative");
+            }
+            if (options.containsKey("workers") && Integer.parseInt(options.get("workers")) < 1) {
+                throw error(lineNumber, "workers must be at least 1");
+            }
+            if (options.containsKey("suppress")) {
+                Double.parseDouble(options.get("suppress"));
+            }
+            String route = options.get("route");
+            if (route != null && !route.equalsIgnoreCase("key") && !route.equalsIgnoreCase("round-robin")) {
+                throw error(lineNumber, "route must be key or round-robin, not " + route);
+            }
+            validatePolicy(options, "overflow", lineNumber);
+            validatePolicy(options, "fanout-overflow", lineNumber);
+        } catch (NumberFormatException e) {
+            throw error(lineNumber, "Invalid number in options: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Checks that an option, if set, names an overflow policy.
+     */
+    private static void validatePolicy(Map<String, String> options, String option, int lineNumber) {
+        if (options.containsKey(option)) {
+            try {
+                OverflowPolicy.fromString(options.get(option));
+            } catch (IllegalArgumentException e) {
+                throw error(lineNumber, "Unknown " + option + " policy: " + options.get(option));
+            }
+        }
+    }
+
+    /**
+     * Returns the cached constructor of an agent type, resolving it on first use.
+     */
+    private static MethodHandle constructorOf(String className, int lineNumber) {
+        MethodHandle constructor = constructors.get(className);
+        if (constructor != null) {
+            return constructor;
+        }
+        Class<?> agentClass = findClass(className);
+        if (agentClass == null || !Agent.class.isAssignableFrom(agentClass)) {
+            throw error(lineNumber, "Unknown agent type: " + className);
+        }
+        MethodType type = MethodType.methodType(Agent.class, TopicManager.class, List.class, List.class, Map.class);
+        try {
+            constructor = MethodHandles.publicLookup().findConstructor(agentClass, AGENT_CONSTRUCTOR_WITH_OPTIONS)
+                    .asType(type);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            try {
+                // Agents without options get the same signature, ignoring the map
+                constructor = MethodHandles.dropArguments(MethodHandles.publicLookup()
+                        .findConstructor(agentClass, AGENT_CONSTRUCTOR).asType(type.dropParameterTypes(3, 4)), 3, Map.class);
+            } catch (NoSuchMethodException | IllegalAccessException e2) {
+                throw error(lineNumber, className + " has no public (TopicManager, List, List) constructor");
+            }
+        }
+        if (SourceAgent.class.isAssignableFrom(agentClass)) {
+            sourceTypes.add(className);
+        }
+        constructors.putIfAbsent(className, constructor);
+        return constructor;
+    }
+
+    private static Class<?> findClass(String className) {
+        try {
+            return Class.forName(className);
+        } catch (ClassNotFoundException e) {
+            if (className.indexOf('.') >= 0) {
+                return null;
+            }
+        }
+        try {
+            return Class.forName(DEFAULT_AGENT_PACKAGE + "." + className);
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    static IllegalArgumentException error(int lineNumber, String message) {
+        return new IllegalArgumentException("Line " + lineNumber + ": " + message);
+    }
+
+    /**
+     * Represents a parsed configuration: the configuration-wide options and the agent blocks in file order.
+     */
+    public static class ConfigInfo {
+        private final Map<String, String> options;
+        private final List<AgentInfo> agents;
+
+        /**
+         * Creates a new ConfigInfo instance with the parsed configuration data.
+         *
+         * @param options The configuration-wide options
+         * @param agents The agent blocks
+         */
+        public ConfigInfo(Map<String, String> options, List<AgentInfo> agents) {
+            this.options = Collections.unmodifiableMap(options);
+            this.agents = Collections.unmodifiableList(agents);
+        }
+
+        /**
+         * Gets the configuration-wide options given on '@' lines.
+         * @return Map of option names to values
+         */
+        public Map<String, String> getOptions() {
+            return options;
+        }
+
+        /**
+         * Gets the agent blocks in file order.
+         * @return List of agent blocks
+         */
+        public List<AgentInfo> getAgents() {
+            return agents;
+        }
+    }
+
+    /**
+     * Represents one agent block of a configuration.
+     */
+    public static class AgentInfo {
+        private final int line;
+        private final String className;
+        private final MethodHandle constructor;
+        private final Map<String, String> options;
+        private final List<String> subs;
+        private final List<String> pubs;
+
+        /**
+         * Creates a new AgentInfo instance with the parsed block data.
+         *
+         * @param line The line the block starts on
+         * @param className The agent type as written in the configuration
+         * @param constructor The agent's constructor, taking the topic manager, topics and options
+         * @param options The agent's options, including the configuration-wide defaults
+         * @param subs The input topics
+         * @param pubs The output topics
+         */
+        public AgentInfo(int line, String className, MethodHandle constructor, Map<String, String> options,
+                         List<String> subs, List<String> pubs) {
+            this.line = line;
+            this.className = className;
+            this.constructor = constructor;
+            this.options = Collections.unmodifiableMap(options);
+            this.subs = subs;
+            this.pubs = pubs;
+        }
+
+        /**
+         * Creates the agent described by the block. The agent subscribes itself to its input topics.
+         *
+         * @param topicManager The topic manager the agent is created in
+         * @return The new agent
+         * @throws IllegalArgumentException If the agent rejects the block, e.g. because of its number of topics
+         */
+        public Agent newAgent(TopicManager topicManager) {
+            try {
+                return (Agent) constructor.invokeExact(topicManager, subs, pubs, options);
+            } catch (RuntimeException | Error e) {
+                throw error(line, e.getMessage());
+            } catch (Throwable t) {
+                throw error(line, t.toString());
+            }
+        }
+
+        /**
+         * Two blocks with the same key describe the same agent, so a reload can keep it running.
+         * @return The key of the block
+         */
+        public String key() {
+            return className + " " + new TreeMap<>(options) + " " + String.join(",", subs) + " "
+                    + String.join(",", pubs);
+        }
+
+        public int getLine() {
+            return line;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public Map<String, String> getOptions() {
+            return options;
+        }
+
+        public List<String> getSubs() {
+            return subs;
+        }
+
+        public List<String> getPubs() {
+            return pubs;
+        }
+    }
+}
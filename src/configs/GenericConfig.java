@@ -1,14 +1,41 @@
 package configs;
 
+import graph.CompiledExecutor;
+import graph.FanOut;
+import graph.FunctionalAgent;
+import graph.FusedAgent;
+import graph.MemoizingAgent;
+import graph.Message;
+import graph.OverflowPolicy;
 import graph.ParallelAgent;
+import graph.SourceAgent;
+import graph.SuppressingAgent;
+import graph.PartitionedAgent;
+import graph.Topic;
 import graph.TopicManagerSingleton;
 import graph.Agent; 
+import utils.Logger;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.IntStream;
 
 /**
  * The GenericConfig class implements the Config interface and provides
@@ -16,8 +43,58 @@ import java.util.List;
  * configuration, and manage their lifecycle.
  */
 public class GenericConfig implements Config {
+    private static final int DEFAULT_CAPACITY = 10;
+    private static final int DEFAULT_FANOUT_CAPACITY = 1024;
+    private static final int PARALLEL_THRESHOLD = 256;  // smaller configurations are created on the calling thread
+
     private String confFile;
-    private List<ParallelAgent> agents = new ArrayList<>();
+    private TopicManagerSingleton.TopicManager topicManager = TopicManagerSingleton.get();
+    private final List<AgentEntry> entries = new ArrayList<>();
+    private Map<String, String> globalOptions = new HashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger(); // messages queued or being processed by any agent
+    private CompiledExecutor executor;
+    private FanOut fanOut;  // parallel delivery for topics with many subscribers, null when off
+
+    /**
+     * An instantiated agent together with the block it was declared with.
+     */
+    private static class AgentEntry {
+        final ConfigParser.AgentInfo spec;
+        final Agent agent;
+        final Agent[] replicas;       // further instances of a partitioned agent, empty otherwise
+        Agent queuedAgent;            // ParallelAgent or PartitionedAgent, null while not started, compiled or fused
+        FusedAgent fusedAgent;        // set when the agent runs, or ran before a reload, on its feeder's thread
+
+        AgentEntry(ConfigParser.AgentInfo spec, Agent agent, Agent[] replicas) {
+            this.spec = spec;
+            this.agent = agent;
+            this.replicas = replicas;
+        }
+
+        /**
+         * Closes the agent and its replicas.
+         */
+        void closeAgents() {
+            agent.close();
+            for (Agent replica : replicas) {
+                replica.close();
+            }
+        }
+    }
+
+    /**
+     * Sets the topic manager the agents are created in. Defaults to the global TopicManagerSingleton.
+     */
+    public void setTopicManager(TopicManagerSingleton.TopicManager topicManager) {
+        this.topicManager = topicManager;
+    }
+
+    /**
+     * Returns the topic manager the agents are created in.
+     */
+    public TopicManagerSingleton.TopicManager getTopicManager() {
+        return topicManager;
+    }
 
     /**
      * Sets the path to the configuration file.
@@ -52,34 +129,514 @@ public class GenericConfig implements Config {
     /**
      * Reads the configuration file, creates agents based on the configuration,
      * and adds them to the list of agents.
+     *
+     * @throws IllegalArgumentException if the configuration is invalid, with the offending line number
+     * @throws UncheckedIOException if the configuration file cannot be read
+     * @see #create(ConfigParser.ConfigInfo)
      */
     @Override
     public void create() {
+        create(read(confFile));
+    }
+
+    /**
+     * Creates agents for an already parsed configuration and adds them to the list of agents.
+     *
+     * The class name line may be followed by per-agent options, e.g.
+     * {@code PlusAgent capacity=32 overflow=conflate batch=16 suppress=0.001}.
+     * Lines starting with '@' hold options for the whole configuration, e.g. {@code @executor=compiled};
+     * they also serve as defaults for the per-agent options.
+     * Each agent is wrapped in a ParallelAgent which replaces it as subscriber of its input topics,
+     * unless the configuration is compiled into a CompiledExecutor. A ParallelAgent starts its thread
+     * on its first message. Agents that only receive the results of one other agent are fused into it
+     * and run on its thread, see {@link ChainFusion}; {@code @fuse=false} turns this off.
+     * An agent with {@code workers=N} runs as N instances in a PartitionedAgent, which routes
+     * messages by key, or in turn with {@code route=round-robin} if the agent is stateless.
+     * Large configurations are instantiated in parallel; topic ids and the order of every topic's
+     * subscribers still follow the configuration, so the wiring is the same on every run.
+     *
+     * @param config the parsed configuration
+     * @throws IllegalArgumentException if an agent rejects its block; the agents created so far are closed
+     */
+    public synchronized void create(ConfigParser.ConfigInfo config) {
+        globalOptions = config.getOptions();
+        List<ConfigParser.AgentInfo> specs = config.getAgents();
+        AgentEntry[] created = new AgentEntry[specs.size()];
+        RuntimeException[] errors = new RuntimeException[specs.size()];
+        boolean parallel = specs.size() >= PARALLEL_THRESHOLD;
+
+        // Register the topics in configuration order first, so topic ids do not depend on thread timing
+        for (ConfigParser.AgentInfo spec : specs) {
+            for (String sub : spec.getSubs()) {
+                topicManager.getTopic(sub);
+            }
+            for (String pub : spec.getPubs()) {
+                topicManager.getTopic(pub);
+            }
+        }
+
+        // Large configurations create their agents on the fork/join common pool
+        IntStream indices = IntStream.range(0, specs.size());
+        (parallel ? indices.parallel() : indices).forEach(i -> {
+            try {
+                created[i] = instantiate(specs.get(i));
+            } catch (RuntimeException e) {
+                errors[i] = e;
+            }
+        });
+        for (RuntimeException error : errors) {
+            if (error != null) {
+                // Report the first invalid block, as a sequential pass would
+                for (AgentEntry entry : created) {
+                    if (entry != null) {
+                        entry.closeAgents();
+                    }
+                }
+                throw error;
+            }
+        }
+        entries.addAll(Arrays.asList(created));
+
+        if (parallel) {
+            // The agents subscribed concurrently, put every topic's agents back into configuration order
+            Map<Agent, Integer> rank = new IdentityHashMap<>();
+            for (int i = 0; i < created.length; i++) {
+                rank.put(created[i].agent, i);
+            }
+            Comparator<Agent> order = Comparator.comparingInt(a -> rank.getOrDefault(a, Integer.MAX_VALUE));
+            IntStream.range(0, topicManager.getTopicCount()).parallel()
+                    .forEach(id -> topicManager.getTopic(id).sortAgents(order));
+        }
+
+        if (isCompiled() && compile(entries)) {
+            startSources(entries);
+            return;
+        }
+
+        // Swap every agent for its ParallelAgent or FusedAgent with one pass over each topic's subscribers
+        boolean[] fused = isFused() ? ChainFusion.fusible(specs, globalOptions) : new boolean[specs.size()];
+        Map<Agent, Agent> wrappers = new IdentityHashMap<>();
+        int fusedCount = 0;
+        for (int i = 0; i < created.length; i++) {
+            AgentEntry entry = created[i];
+            if (fused[i]) {
+                entry.fusedAgent = new FusedAgent(entry.agent);
+                wrappers.put(entry.agent, entry.fusedAgent);
+                fusedCount++;
+            } else {
+                entry.queuedAgent = wrap(entry);
+                wrappers.put(entry.agent, entry.queuedAgent);
+            }
+        }
+        if (fusedCount > 0) {
+            Logger.info("GenericConfig: Fused " + fusedCount + " agents into the chains of the agents feeding them");
+        }
+        IntStream ids = IntStream.range(0, topicManager.getTopicCount());
+        (parallel ? ids.parallel() : ids).forEach(id -> topicManager.getTopic(id).replaceSubscribers(wrappers));
+
+        String threshold = globalOptions.get("fanout");
+        if (threshold != null) {
+            int lanes = Integer.parseInt(globalOptions.getOrDefault("fanout-lanes",
+                    String.valueOf(Runtime.getRuntime().availableProcessors())));
+            int capacity = Integer.parseInt(globalOptions.getOrDefault("fanout-capacity",
+                    String.valueOf(DEFAULT_FANOUT_CAPACITY)));
+            OverflowPolicy policy = OverflowPolicy.fromString(globalOptions.getOrDefault("fanout-overflow",
+                    "drop-oldest"));
+            fanOut = new FanOut(Integer.parseInt(threshold), lanes, capacity, policy, inFlight);
+            applyFanOut();
+        }
+        startSources(entries);
+    }
+
+    /**
+     * Starts the agents that publish by themselves, once the topics they feed are wired.
+     */
+    private static void startSources(List<AgentEntry> entries) {
+        for (AgentEntry entry : entries) {
+            if (entry.agent instanceof SourceAgent) {
+                ((SourceAgent) entry.agent).start();
+            }
+        }
+    }
+
+    /**
+     * Logs how often a memoizing agent, with all its replicas, found its result in the cache, and how many
+     * results a suppressing agent held back.
+     */
+    private static void logAgentStats(AgentEntry entry) {
+        long hits = 0;
+        long misses = 0;
+        Agent[] instances = Arrays.copyOf(entry.replicas, entry.replicas.length + 1);
+        instances[entry.replicas.length] = entry.agent;
+        for (Agent instance : instances) {
+            if (instance instanceof MemoizingAgent) {
+                hits += ((MemoizingAgent) instance).getCacheHits();
+                misses += ((MemoizingAgent) instance).getCacheMisses();
+            }
+        }
+        if (hits + misses > 0) {
+            Logger.info("GenericConfig: " + entry.agent.getName() + " memo hit rate " + (hits * 100 / (hits + misses))
+                    + "% (" + hits + " of " + (hits + misses) + ")");
+        }
+        long suppressed = 0;
+        for (Agent instance : instances) {
+            if (instance instanceof SuppressingAgent) {
+                suppressed += ((SuppressingAgent) instance).getSuppressedCount();
+            }
+        }
+        if (suppressed > 0) {
+            Logger.info("GenericConfig: " + entry.agent.getName() + " suppressed " + suppressed + " unchanged results");
+        }
+    }
+
+    /**
+     * Lets every topic deliver in parallel through the fan-out, including topics added by a reload.
+     */
+    private void applyFanOut() {
+        if (fanOut != null) {
+            for (Topic topic : topicManager.getTopics()) {
+                topic.setFanOut(fanOut);
+            }
+        }
+    }
+
+    /**
+     * Applies a new version of the configuration file to the running agents.
+     *
+     * Agents whose block did not change keep running with their thread and state, agents that were added are
+     * started and agents that were removed are stopped. New agents are created without receiving messages,
+     * then every topic swaps its removed subscribers for its added ones in a single step, so a publish
+     * never reaches both versions of a changed block. Chains are fused anew: an added agent joins the chain
+     * of its feeder if it qualifies, and a kept fused agent that no longer does gets a queue of its own.
+     *
+     * @param newConfFile path to the new configuration file
+     * @return true if the configuration was applied, false if it needs a full rebuild because the
+     *         configuration-wide options changed or the new graph can no longer be compiled
+     * @throws IllegalArgumentException if the new configuration is invalid or an agent cannot be created;
+     *         the running agents are not changed in that case
+     * @throws UncheckedIOException if the configuration file cannot be read
+     */
+    public synchronized boolean reload(String newConfFile) {
+        setConfFile(newConfFile);
+        return reload(read(confFile));
+    }
+
+    /**
+     * Applies an already parsed new version of the configuration to the running agents.
+     *
+     * @param config the parsed configuration
+     * @return true if the configuration was applied, false if it needs a full rebuild
+     * @throws IllegalArgumentException if an agent cannot be created; the running agents are not changed in that case
+     * @see #reload(String)
+     */
+    public synchronized boolean reload(ConfigParser.ConfigInfo config) {
+        if (!config.getOptions().equals(globalOptions)) {
+            return false;
+        }
+
+        // Match the new blocks against the running agents
+        Map<String, ArrayDeque<AgentEntry>> running = new HashMap<>();
+        for (AgentEntry entry : entries) {
+            running.computeIfAbsent(entry.spec.key(), k -> new ArrayDeque<>()).add(entry);
+        }
+        List<AgentEntry> next = new ArrayList<>();
+        List<AgentEntry> added = new ArrayList<>();
         try {
-            List<String> lines = Files.readAllLines(Paths.get(confFile));
-            if (lines.size() % 3 != 0) {
-                //System.out.println("Invalid configuration file");
-                return;
+            for (ConfigParser.AgentInfo spec : config.getAgents()) {
+                ArrayDeque<AgentEntry> same = running.get(spec.key());
+                if (same != null && !same.isEmpty()) {
+                    next.add(same.poll());
+                } else {
+                    AgentEntry entry = instantiateDetached(spec);
+                    added.add(entry);
+                    next.add(entry);
+                }
+            }
+        } catch (RuntimeException e) {
+            for (AgentEntry entry : added) {
+                entry.closeAgents();
+            }
+            throw e;
+        }
+        List<AgentEntry> removed = new ArrayList<>();
+        for (ArrayDeque<AgentEntry> left : running.values()) {
+            removed.addAll(left);
+        }
+
+        if (executor != null) {
+            for (AgentEntry entry : removed) {
+                entry.closeAgents();
+            }
+            CompiledExecutor previous = executor;
+            if (!compile(next)) {
+                for (AgentEntry entry : added) {
+                    entry.closeAgents();
+                }
+                return false;
+            }
+            previous.close();
+            for (AgentEntry entry : added) {
+                // The plan evaluates the new agents, their subscriptions only place them in the graph
+                for (String sub : entry.spec.getSubs()) {
+                    topicManager.getTopic(sub).subscribe(entry.agent);
+                }
             }
+        } else {
+            // Collect the subscribers every topic loses and gains, then switch each topic in one step
+            Map<Topic, List<Agent>> unsubscribed = new LinkedHashMap<>();
+            Map<Topic, List<Agent>> subscribed = new LinkedHashMap<>();
+            Set<AgentEntry> fresh = Collections.newSetFromMap(new IdentityHashMap<>());
+            fresh.addAll(added);
+            List<ConfigParser.AgentInfo> specs = new ArrayList<>();
+            for (AgentEntry entry : next) {
+                specs.add(entry.spec);
+            }
+            boolean[] fused = isFused() ? ChainFusion.fusible(specs, globalOptions) : new boolean[specs.size()];
+            for (int i = 0; i < next.size(); i++) {
+                AgentEntry entry = next.get(i);
+                Agent runner;
+                if (fresh.contains(entry)) {
+                    if (fused[i]) {
+                        entry.fusedAgent = new FusedAgent(entry.agent);
+                        runner = entry.fusedAgent;
+                    } else {
+                        entry.queuedAgent = wrap(entry);
+                        runner = entry.queuedAgent;
+                    }
+                } else if (entry.queuedAgent == null && entry.fusedAgent != null && !fused[i]) {
+                    // Its chain changed, the agent gets a queue of its own
+                    entry.queuedAgent = wrap(entry);
+                    runner = entry.queuedAgent;
+                    for (String sub : new LinkedHashSet<>(entry.spec.getSubs())) {
+                        unsubscribed.computeIfAbsent(topicManager.getTopic(sub), t -> new ArrayList<>())
+                                .add(entry.fusedAgent);
+                    }
+                } else {
+                    continue;
+                }
+                for (String sub : new LinkedHashSet<>(entry.spec.getSubs())) {
+                    subscribed.computeIfAbsent(topicManager.getTopic(sub), t -> new ArrayList<>()).add(runner);
+                }
+            }
+            for (AgentEntry entry : removed) {
+                Agent runner = entry.queuedAgent != null ? entry.queuedAgent : entry.fusedAgent;
+                for (String sub : new LinkedHashSet<>(entry.spec.getSubs())) {
+                    unsubscribed.computeIfAbsent(topicManager.getTopic(sub), t -> new ArrayList<>()).add(runner);
+                }
+            }
+            Set<Topic> changed = new LinkedHashSet<>(unsubscribed.keySet());
+            changed.addAll(subscribed.keySet());
+            for (Topic topic : changed) {
+                topic.changeSubscribers(unsubscribed.getOrDefault(topic, Collections.emptyList()),
+                        subscribed.getOrDefault(topic, Collections.emptyList()));
+            }
+            for (AgentEntry entry : removed) {
+                stop(entry);
+            }
+            for (AgentEntry entry : added) {
+                // Let the new agent catch up with the current values of its inputs
+                Agent runner = entry.queuedAgent != null ? entry.queuedAgent : entry.fusedAgent;
+                for (String sub : entry.spec.getSubs()) {
+                    Message last = topicManager.getTopic(sub).getLastMessage();
+                    if (last != null) {
+                        runner.callback(sub, last);
+                    }
+                }
+            }
+            applyFanOut();
+        }
 
-            TopicManagerSingleton.TopicManager topicManager = TopicManagerSingleton.get();
+        startSources(added);
+        entries.clear();
+        entries.addAll(next);
+        Logger.info("GenericConfig: Reloaded, kept " + (next.size() - added.size()) + " agents, added "
+                + added.size() + ", removed " + removed.size());
+        return true;
+    }
 
-            for (int i = 0; i < lines.size(); i += 3) {
-                String className = lines.get(i);
-                String[] subs = lines.get(i + 1).split(",");
-                String[] pubs = lines.get(i + 2).split(",");
+    /**
+     * Reads and validates a configuration file.
+     */
+    private static ConfigParser.ConfigInfo read(String file) {
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(file))) {
+            return ConfigParser.parseConfig(reader);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read configuration file " + file, e);
+        }
+    }
+
+    /**
+     * Creates the agent of a block. The agent subscribes itself to its input topics.
+     * The replicas of a partitioned agent are unwired again, they only receive messages through
+     * its PartitionedAgent, and the first instance alone represents the agent in the graph.
+     */
+    private AgentEntry instantiate(ConfigParser.AgentInfo spec) {
+        Agent agent = spec.newAgent(topicManager);
+        Agent[] replicas = new Agent[workers(spec) - 1];
+        for (int i = 0; i < replicas.length; i++) {
+            replicas[i] = spec.newAgent(topicManager);
+            for (String sub : spec.getSubs()) {
+                topicManager.getTopic(sub).unsubscribe(replicas[i]);
+            }
+            for (String pub : spec.getPubs()) {
+                topicManager.getTopic(pub).removePublisher(replicas[i]);
+            }
+        }
 
-                Class<?> agentClass = Class.forName(className);
-                Agent agent = (Agent) agentClass.getConstructor(TopicManagerSingleton.TopicManager.class, List.class, List.class)
-                        .newInstance(topicManager, Arrays.asList(subs), Arrays.asList(pubs));
+        String memo = spec.getOptions().get("memo");
+        if (memo != null) {
+            if (agent instanceof MemoizingAgent) {
+                ((MemoizingAgent) agent).setCacheCapacity(Integer.parseInt(memo));
+                for (Agent replica : replicas) {
+                    ((MemoizingAgent) replica).setCacheCapacity(Integer.parseInt(memo));
+                }
+            } else {
+                Logger.warn("GenericConfig: " + agent.getName() + " cannot memoize its results, ignoring memo");
+            }
+        }
 
-                ParallelAgent parallelAgent = new ParallelAgent(agent, 10);
-                agents.add(parallelAgent);
+        String suppress = spec.getOptions().get("suppress");
+        if (suppress != null) {
+            if (agent instanceof SuppressingAgent) {
+                ((SuppressingAgent) agent).setChangeSuppression(Double.parseDouble(suppress));
+                for (Agent replica : replicas) {
+                    ((SuppressingAgent) replica).setChangeSuppression(Double.parseDouble(suppress));
+                }
+            } else {
+                Logger.warn("GenericConfig: " + agent.getName() + " cannot suppress unchanged results, ignoring suppress");
             }
+        }
+        return new AgentEntry(spec, agent, replicas);
+    }
 
-        } catch (Exception e) {
-            //e.printStackTrace();
+    /**
+     * Creates the agent of a block for a running graph without letting it receive a message: its input topics
+     * are locked while it subscribes itself and is unsubscribed again, so no publish can see it in between.
+     * The locks are taken in topic id order.
+     */
+    private AgentEntry instantiateDetached(ConfigParser.AgentInfo spec) {
+        Topic[] inputs = new LinkedHashSet<>(spec.getSubs()).stream()
+                .map(topicManager::getTopic)
+                .sorted(Comparator.comparingInt(topic -> topic.id))
+                .toArray(Topic[]::new);
+        return instantiateLocked(spec, inputs, 0);
+    }
+
+    private AgentEntry instantiateLocked(ConfigParser.AgentInfo spec, Topic[] inputs, int locked) {
+        if (locked < inputs.length) {
+            synchronized (inputs[locked]) {
+                return instantiateLocked(spec, inputs, locked + 1);
+            }
+        }
+        AgentEntry entry = instantiate(spec);
+        for (Topic input : inputs) {
+            input.unsubscribe(entry.agent);
         }
+        return entry;
+    }
+
+    /**
+     * Returns the number of instances the workers option of a block asks for.
+     */
+    static int workers(ConfigParser.AgentInfo spec) {
+        return Integer.parseInt(spec.getOptions().getOrDefault("workers", "1"));
+    }
+
+    /**
+     * Creates the ParallelAgent of an agent from its block's queue options,
+     * or a PartitionedAgent over its instances if it has replicas.
+     * An agent that leaves its chain on a reload is queued through its FusedAgent, so a call still running on
+     * the chain's thread finishes before the queue delivers the next message.
+     */
+    private Agent wrap(AgentEntry entry) {
+        Map<String, String> options = entry.spec.getOptions();
+        int capacity = Integer.parseInt(options.getOrDefault("capacity", String.valueOf(DEFAULT_CAPACITY)));
+        OverflowPolicy policy = OverflowPolicy.fromString(options.getOrDefault("overflow", "block"));
+        int batchLimit = Integer.parseInt(options.getOrDefault("batch", "1"));
+        if (entry.replicas.length > 0) {
+            Agent[] instances = new Agent[entry.replicas.length + 1];
+            instances[0] = entry.agent;
+            System.arraycopy(entry.replicas, 0, instances, 1, entry.replicas.length);
+            boolean roundRobin = "round-robin".equalsIgnoreCase(options.get("route"));
+            if (roundRobin && !entry.agent.isStateless()) {
+                // The agent needs its messages in order, keep every key on one instance
+                Logger.warn("GenericConfig: " + entry.agent.getName() + " keeps state, routing its messages by key");
+                roundRobin = false;
+            }
+            return new PartitionedAgent(instances, capacity, policy, batchLimit, inFlight, roundRobin);
+        }
+        Agent target = entry.fusedAgent != null ? entry.fusedAgent : entry.agent;
+        return new ParallelAgent(target, capacity, policy, batchLimit, inFlight);
+    }
+
+    /**
+     * Stops the worker thread of an agent that was unwired from its topics, and closes the agent.
+     */
+    private void stop(AgentEntry entry) {
+        Agent runner = entry.queuedAgent != null ? entry.queuedAgent : entry.fusedAgent;
+        runner.close();
+        entry.closeAgents();
+    }
+
+    private boolean isCompiled() {
+        return "compiled".equalsIgnoreCase(globalOptions.get("executor"));
+    }
+
+    private boolean isFused() {
+        return !"false".equalsIgnoreCase(globalOptions.get("fuse"));
+    }
+
+    /**
+     * Compiles the agents into a synchronous evaluation plan.
+     * Falls back to queued agents if an agent is not a FunctionalAgent or the graph has cycles.
+     * Source agents are left out of the plan, their messages enter it like published ones.
+     *
+     * @return true if the agents were compiled
+     */
+    private boolean compile(List<AgentEntry> entries) {
+        List<FunctionalAgent> functionalAgents = new ArrayList<>();
+        for (AgentEntry entry : entries) {
+            if (entry.agent instanceof SourceAgent) {
+                continue;  // Publishes into the plan from outside, like a user
+            }
+            if (!(entry.agent instanceof FunctionalAgent)) {
+                Logger.warn("GenericConfig: " + entry.agent.getName() + " cannot be compiled, using queued agents");
+                return false;
+            }
+            functionalAgents.add((FunctionalAgent) entry.agent);
+        }
+        try {
+            executor = CompiledExecutor.compile(topicManager, functionalAgents);
+            Logger.info("GenericConfig: Compiled " + executor.size() + " agents");
+            return true;
+        } catch (IllegalStateException e) {
+            Logger.warn("GenericConfig: " + e.getMessage() + ", using queued agents");
+            return false;
+        }
+    }
+
+    /**
+     * Returns the compiled executor, or null if the agents run on their own threads.
+     */
+    public CompiledExecutor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Waits until no agent has a queued or in-progress message, or until the timeout expires.
+     *
+     * @param timeoutMillis the maximum time to wait
+     * @return true if the agents became idle, false if the timeout expired first
+     */
+    public boolean awaitIdle(long timeoutMillis) {
+        long deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
+        while (inFlight.get() > 0) {
+            if (System.nanoTime() >= deadline) {
+                return false;
+            }
+            LockSupport.parkNanos(100_000);
+        }
+        return true;
     }
 
     /**
@@ -102,9 +659,44 @@ public class GenericConfig implements Config {
      * Closes all agents and releases any resources held by them.
      */
     @Override
-    public void close() {
-        for (ParallelAgent agent : agents) {
-            agent.close();
+    public synchronized void close() {
+        // Stop the generators first, so nothing new enters the graph while it shuts down
+        for (AgentEntry entry : entries) {
+            if (entry.agent instanceof SourceAgent) {
+                entry.closeAgents();
+            }
+        }
+        // Drain the fan-out lanes while the agents they feed still take messages
+        if (fanOut != null) {
+            fanOut.close();
+            for (Topic topic : topicManager.getTopics()) {
+                if (topic.getFanOutCount() > 0) {
+                    Logger.info("GenericConfig: Topic " + topic.name + " fanned out " + topic.getFanOutCount()
+                            + " messages, mean " + topic.getMeanFanOutNanos() / 1000 + " us, max "
+                            + topic.getMaxFanOutNanos() / 1000 + " us");
+                }
+            }
+            if (fanOut.getDropped() > 0) {
+                Logger.info("GenericConfig: Fan-out lanes dropped " + fanOut.getDropped() + " messages");
+            }
+        }
+        if (executor != null) {
+            executor.close();
+        }
+        for (AgentEntry entry : entries) {
+            if (entry.queuedAgent != null) {
+                entry.queuedAgent.close();
+            }
+            logAgentStats(entry);
+        }
+        // The chains are drained, unwire the agents that ran on them
+        for (AgentEntry entry : entries) {
+            if (entry.queuedAgent == null && entry.fusedAgent != null) {
+                for (String sub : entry.spec.getSubs()) {
+                    topicManager.getTopic(sub).unsubscribe(entry.fusedAgent);
+                }
+                entry.closeAgents();
+            }
         }
     }
 }
\ No newline at end of file
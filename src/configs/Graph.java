@@ -1,20 +1,41 @@
 package configs;
 
 import graph.Agent;
+import graph.AgentRegistry;
 import graph.Topic;
 import graph.TopicManagerSingleton;
 import utils.Logger;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
 
 /**
  * The Graph class represents a graph structure that extends ArrayList of Node objects.
  * It provides methods to check for cycles and to initialize the graph from topics managed by TopicManager.
+ *
+ * Cycles are found with an iterative Tarjan pass over the strongly connected components in O(V+E).
+ * An acyclic graph also keeps a topological order, which {@link #addEdge(Node, Node)} maintains incrementally,
+ * so edges added during a hot reload are checked by searching only the part of the order they affect.
  */
 public class Graph extends ArrayList<Node> {
-    private Map<String, String> agentUUIDToNodeId = new HashMap<>();
+    private static final int PARALLEL_THRESHOLD = 256;  // smaller graphs are built on the calling thread
+    private boolean analyzed;                  // whether cyclic and the order below reflect the current graph
+    private boolean cyclic;
+    private Map<Node, Integer> positions;      // node -> topological position, null while the graph is cyclic
+    private List<Node> topologicalOrder;       // position -> node, null while the graph is cyclic
 
     /**
      * Checks if the graph contains any cycles.
@@ -22,69 +43,434 @@ public class Graph extends ArrayList<Node> {
      * @return true if the graph has cycles, false otherwise
      */
     public boolean hasCycles() {
-        for (Node node : this) {
-            if (node.hasCycles()) {  // Using the method already defined in Node
-                return true; // A cycle was found in this node's connected component
-            }
-        }
-        return false; // No cycle found
+        return !findCycles().isEmpty();
     }
 
     /**
      * Gets a unique agent key for an agent instance using its UUID
      */
     private String getUniqueAgentKey(Agent agent) {
-        return agentUUIDToNodeId.computeIfAbsent(agent.getUUID(), uuid -> {
-            String baseName = agent.getName();
-            return "A" + baseName + "_" + uuid.substring(0, 8);  // Use first 8 chars of UUID
-        });
+        return AgentRegistry.nodeId(agent);
     }
 
     /**
-     * Initializes the graph from the topics managed by TopicManager.
-     * Creates nodes for each topic and agent, and adds edges between them based on subscriptions and publications.
+     * Initializes the graph from the topics managed by the global TopicManager.
      */
     public void createFromTopics() {
-        TopicManagerSingleton.TopicManager topicManager = TopicManagerSingleton.get();
-        Map<String, Node> agentNodes = new HashMap<>();
+        createFromTopics(TopicManagerSingleton.get());
+    }
 
+    /**
+     * Initializes the graph from the topics managed by the given TopicManager.
+     * Creates nodes for each topic and agent, and adds edges between them based on subscriptions and publications.
+     *
+     * The nodes and the topic-to-subscriber edges of every topic are built in parallel on the fork/join common pool.
+     * The nodes are then laid out, and the publisher edges added, in topic order, so the result is the same
+     * as a sequential build.
+     */
+    public void createFromTopics(TopicManagerSingleton.TopicManager topicManager) {
+        List<Topic> topics = new ArrayList<>();
         for (Topic topic : topicManager.getTopics()) {
-            Logger.info("Creating topic node for topic: " + topic.name);
+            if (topic.getSubscribers().isEmpty() && topic.getPublishers().isEmpty()) {
+                continue; // Not connected to any agent, e.g. left over after its agents were removed by a reload
+            }
+            topics.add(topic);
+        }
+
+        int n = topics.size();
+        Node[] topicNodes = new Node[n];
+        Node[][] publisherNodes = new Node[n][];
+        Map<String, Node> agentNodes = new ConcurrentHashMap<>();
+        IntStream indices = IntStream.range(0, n);
+        (n >= PARALLEL_THRESHOLD ? indices.parallel() : indices).forEach(i -> {
+            Topic topic = topics.get(i);
             Node topicNode = new Node("T" + topic.name);
-            this.add(topicNode);
+            for (Agent agent : topic.getSubscribers().toArray(new Agent[0])) {
+                // Add an edge from the topic to the subscriber agent
+                topicNode.addEdge(agentNodes.computeIfAbsent(getUniqueAgentKey(agent), Node::new));
+            }
+            Agent[] publishers = topic.getPublishers().toArray(new Agent[0]);
+            publisherNodes[i] = new Node[publishers.length];
+            for (int p = 0; p < publishers.length; p++) {
+                publisherNodes[i][p] = agentNodes.computeIfAbsent(getUniqueAgentKey(publishers[p]), Node::new);
+            }
+            topicNodes[i] = topicNode;
+        });
 
-            for (Agent agent : topic.getSubscribers()) {
-                String agentKey = getUniqueAgentKey(agent);
-                Logger.info("Processing agent with UUID: " + agent.getUUID() + ", key: " + agentKey);
+        // Each agent node follows the first topic that mentions it
+        Set<Node> placed = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = 0; i < n; i++) {
+            this.add(topicNodes[i]);
+            for (Node agentNode : topicNodes[i].getEdges()) {
+                if (placed.add(agentNode)) {
+                    this.add(agentNode);
+                }
+            }
+            for (Node agentNode : publisherNodes[i]) {
+                if (placed.add(agentNode)) {
+                    this.add(agentNode);
+                }
+                // Add an edge from the publisher agent to the topic
+                agentNode.addEdge(topicNodes[i]);
+            }
+        }
 
-                // Retrieve or create the agent node
-                Node agentNode = agentNodes.computeIfAbsent(agentKey, k -> {
-                    Node newNode = new Node(k);
-                    this.add(newNode);
-                    return newNode;
-                });
+        analyzed = false;
+        Logger.info("Graph: Created " + size() + " nodes for " + n + " topics and " + agentNodes.size() + " agents");
+    }
 
-                // Add an edge from the topic to the subscriber agent
-                topicNode.addEdge(agentNode);
+    /**
+     * Finds the cycles of the graph, one for every strongly connected component that contains a cycle.
+     * Each cycle lists its nodes along the edges; the last node has an edge back to the first.
+     *
+     * @return the cycles, empty if the graph is acyclic
+     */
+    public List<List<Node>> findCycles() {
+        int n = size();
+        Map<Node, Integer> index = new IdentityHashMap<>(n * 2);
+        for (int i = 0; i < n; i++) {
+            index.put(get(i), i);
+        }
+        int[][] adjacency = new int[n][];
+        for (int v = 0; v < n; v++) {
+            List<Node> edges = get(v).getEdges();
+            int[] targets = new int[edges.size()];
+            int count = 0;
+            for (Node target : edges) {
+                Integer w = index.get(target);
+                if (w != null) {
+                    targets[count++] = w;
+                }
             }
+            adjacency[v] = count == targets.length ? targets : Arrays.copyOf(targets, count);
+        }
+
+        // Tarjan's algorithm with explicit stacks, so long chains cannot overflow the call stack
+        int[] number = new int[n];       // discovery number, 0 while unvisited
+        int[] low = new int[n];
+        int[] component = new int[n];    // component id, -1 while on the Tarjan stack or unvisited
+        int[] stack = new int[n];
+        int[] callStack = new int[n];
+        int[] nextEdge = new int[n];
+        int[] finished = new int[n];     // nodes in the order their components completed
+        Arrays.fill(component, -1);
+        int counter = 0;
+        int stackSize = 0;
+        int finishedCount = 0;
+        int components = 0;
+        List<int[]> cyclicComponents = new ArrayList<>();
+
+        for (int root = 0; root < n; root++) {
+            if (number[root] != 0) {
+                continue;
+            }
+            number[root] = low[root] = ++counter;
+            stack[stackSize++] = root;
+            callStack[0] = root;
+            nextEdge[0] = 0;
+            int depth = 1;
+            while (depth > 0) {
+                int v = callStack[depth - 1];
+                if (nextEdge[depth - 1] < adjacency[v].length) {
+                    int w = adjacency[v][nextEdge[depth - 1]++];
+                    if (number[w] == 0) {
+                        number[w] = low[w] = ++counter;
+                        stack[stackSize++] = w;
+                        callStack[depth] = w;
+                        nextEdge[depth] = 0;
+                        depth++;
+                    } else if (component[w] < 0) {
+                        low[v] = Math.min(low[v], number[w]);
+                    }
+                    continue;
+                }
+
+                depth--;
+                if (depth > 0) {
+                    int parent = callStack[depth - 1];
+                    low[parent] = Math.min(low[parent], low[v]);
+                }
+                if (low[v] != number[v]) {
+                    continue;
+                }
+                // v is the root of a component, which is everything above it on the stack
+                int start = stackSize;
+                do {
+                    component[stack[--start]] = components;
+                } while (stack[start] != v);
+                int[] members = Arrays.copyOfRange(stack, start, stackSize);
+                stackSize = start;
+                components++;
+                for (int member : members) {
+                    finished[finishedCount++] = member;
+                }
+                if (members.length > 1 || contains(adjacency[v], v)) {
+                    cyclicComponents.add(members);
+                }
+            }
+        }
 
+        List<List<Node>> cycles = new ArrayList<>();
+        for (int[] members : cyclicComponents) {
+            cycles.add(cycleThrough(members[members.length - 1], adjacency, component));
+        }
+
+        // Components complete in reverse topological order
+        analyzed = true;
+        cyclic = !cycles.isEmpty();
+        if (cyclic) {
+            positions = null;
+            topologicalOrder = null;
+        } else {
+            positions = new IdentityHashMap<>(n * 2);
+            topologicalOrder = new ArrayList<>(n);
+            for (int k = n - 1; k >= 0; k--) {
+                positions.put(get(finished[k]), topologicalOrder.size());
+                topologicalOrder.add(get(finished[k]));
+            }
+        }
+        return cycles;
+    }
+
+    private static boolean contains(int[] values, int value) {
+        for (int v : values) {
+            if (v == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds a shortest cycle through a node, searching only its own strongly connected component.
+     */
+    private List<Node> cycleThrough(int start, int[][] adjacency, int[] component) {
+        Map<Integer, Integer> parent = new HashMap<>();
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        queue.add(start);
+        int last = -1;
+        search:
+        while (!queue.isEmpty()) {
+            int v = queue.poll();
+            for (int w : adjacency[v]) {
+                if (w == start) {
+                    last = v;
+                    break search;
+                }
+                if (component[w] == component[start] && !parent.containsKey(w)) {
+                    parent.put(w, v);
+                    queue.add(w);
+                }
+            }
+        }
+        LinkedList<Node> cycle = new LinkedList<>();
+        for (int v = last; v != start; v = parent.get(v)) {
+            cycle.addFirst(get(v));
+        }
+        cycle.addFirst(get(start));
+        return new ArrayList<>(cycle);
+    }
+
+    /**
+     * Adds a node to the graph, keeping the topological order up to date.
+     */
+    public void addNode(Node node) {
+        add(node);
+        if (analyzed && !cyclic) {
+            positions.put(node, topologicalOrder.size());
+            topologicalOrder.add(node);
+        }
+    }
+
+    /**
+     * Adds an edge and checks incrementally whether it closes a cycle.
+     *
+     * While the graph is acyclic, only the nodes between the two ends in the topological order are searched,
+     * and the ones reachable from the target are moved behind the source. Once the graph has a cycle,
+     * the order is dropped and every new edge is checked with a search from its target.
+     *
+     * @param from the source node, already part of the graph
+     * @param to the target node, already part of the graph
+     * @return the cycle closed by the edge, starting with {@code to} and ending with {@code from},
+     *         or an empty list if the edge does not close a cycle
+     */
+    public List<Node> addEdge(Node from, Node to) {
+        if (!analyzed) {
+            findCycles();
+        }
+        from.addEdge(to);
+        if (cyclic) {
+            return pathBetween(to, from, Integer.MAX_VALUE);
+        }
+
+        int lower = positions.get(to);
+        int upper = positions.get(from);
+        if (lower > upper) {
+            return Collections.emptyList();  // the order already has the source first
+        }
+        List<Node> cycle = pathBetween(to, from, upper);
+        if (!cycle.isEmpty()) {
+            cyclic = true;
+            positions = null;
+            topologicalOrder = null;
+            return cycle;
+        }
+
+        // Move the nodes reachable from the target behind the source, keeping the relative order on both sides
+        Set<Node> reachable = reachableWithin(to, upper);
+        List<Node> before = new ArrayList<>();
+        List<Node> after = new ArrayList<>();
+        for (int k = lower; k <= upper; k++) {
+            Node node = topologicalOrder.get(k);
+            (reachable.contains(node) ? after : before).add(node);
+        }
+        int k = lower;
+        for (List<Node> part : Arrays.asList(before, after)) {
+            for (Node node : part) {
+                topologicalOrder.set(k, node);
+                positions.put(node, k++);
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Returns a path from one node to another over nodes whose topological position is at most the bound,
+     * or an empty list if there is none.
+     */
+    private List<Node> pathBetween(Node source, Node target, int bound) {
+        Map<Node, Node> parent = new IdentityHashMap<>();
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        parent.put(source, source);
+        stack.push(source);
+        while (!stack.isEmpty()) {
+            Node v = stack.pop();
+            if (v == target) {
+                LinkedList<Node> path = new LinkedList<>();
+                for (Node u = target; u != source; u = parent.get(u)) {
+                    path.addFirst(u);
+                }
+                path.addFirst(source);
+                return new ArrayList<>(path);
+            }
+            for (Node w : v.getEdges()) {
+                if (!parent.containsKey(w) && withinBound(w, bound)) {
+                    parent.put(w, v);
+                    stack.push(w);
+                }
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    private Set<Node> reachableWithin(Node source, int bound) {
+        Set<Node> reached = Collections.newSetFromMap(new IdentityHashMap<>());
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        reached.add(source);
+        stack.push(source);
+        while (!stack.isEmpty()) {
+            for (Node w : stack.pop().getEdges()) {
+                if (withinBound(w, bound) && reached.add(w)) {
+                    stack.push(w);
+                }
+            }
+        }
+        return reached;
+    }
+
+    private boolean withinBound(Node node, int bound) {
+        if (positions == null) {
+            return true;
+        }
+        Integer position = positions.get(node);
+        return position != null && position <= bound;
+    }
+
+    /**
+     * Brings the graph in line with the current subscriptions and publications of the topic manager,
+     * e.g. after a hot reload. Nodes and edges that no longer exist are removed, new ones are added with
+     * {@link #addNode(Node)} and {@link #addEdge(Node, Node)}, so only the changes are checked for cycles.
+     * New nodes are appended at the end of the graph.
+     *
+     * @return the cycles closed by the new edges, empty if the update kept the graph acyclic
+     */
+    public List<List<Node>> updateFromTopics(TopicManagerSingleton.TopicManager topicManager) {
+        if (!analyzed) {
+            findCycles();
+        }
+
+        // The wanted edges, by node name
+        Map<String, Set<String>> wanted = new LinkedHashMap<>();
+        for (Topic topic : topicManager.getTopics()) {
+            if (topic.getSubscribers().isEmpty() && topic.getPublishers().isEmpty()) {
+                continue;
+            }
+            String topicName = "T" + topic.name;
+            Set<String> targets = wanted.computeIfAbsent(topicName, k -> new LinkedHashSet<>());
+            for (Agent agent : topic.getSubscribers()) {
+                String agentName = getUniqueAgentKey(agent);
+                targets.add(agentName);
+                wanted.computeIfAbsent(agentName, k -> new LinkedHashSet<>());
+            }
             for (Agent agent : topic.getPublishers()) {
-                String agentKey = getUniqueAgentKey(agent);
-                Logger.info("Processing publisher agent with UUID: " + agent.getUUID() + ", key: " + agentKey);
+                wanted.computeIfAbsent(getUniqueAgentKey(agent), k -> new LinkedHashSet<>()).add(topicName);
+            }
+        }
 
-                // Retrieve or create the agent node
-                Node agentNode = agentNodes.computeIfAbsent(agentKey, k -> {
-                    Node newNode = new Node(k);
-                    this.add(newNode);
-                    return newNode;
-                });
+        // Removing nodes and edges cannot create a cycle and keeps the topological order valid
+        removeIf(node -> !wanted.containsKey(node.getName()));
+        Map<String, Node> byName = new HashMap<>();
+        for (Node node : this) {
+            byName.put(node.getName(), node);
+            Set<String> targets = wanted.get(node.getName());
+            node.getEdges().removeIf(target -> !targets.contains(target.getName()));
+        }
+        if (positions != null) {
+            topologicalOrder.removeIf(node -> !wanted.containsKey(node.getName()));
+            positions.clear();
+            for (int k = 0; k < topologicalOrder.size(); k++) {
+                positions.put(topologicalOrder.get(k), k);
+            }
+        } else {
+            analyzed = false;  // removals may have broken the cycles, start over
+            findCycles();
+        }
 
-                // Add an edge from the publisher agent to the topic
-                agentNode.addEdge(topicNode);
+        for (String name : wanted.keySet()) {
+            if (!byName.containsKey(name)) {
+                Node node = new Node(name);
+                byName.put(name, node);
+                addNode(node);
             }
         }
+        List<List<Node>> cycles = new ArrayList<>();
+        for (Map.Entry<String, Set<String>> entry : wanted.entrySet()) {
+            Node from = byName.get(entry.getKey());
+            Set<String> existing = new HashSet<>();
+            for (Node target : from.getEdges()) {
+                existing.add(target.getName());
+            }
+            for (String target : entry.getValue()) {
+                if (!existing.contains(target)) {
+                    List<Node> cycle = addEdge(from, byName.get(target));
+                    if (!cycle.isEmpty()) {
+                        cycles.add(cycle);
+                    }
+                }
+            }
+        }
+        return cycles;
+    }
 
-        printGraph();
+    /**
+     * Formats a cycle as its node names joined by arrows, e.g. {@code TA -> APlusAgent_1234abcd -> TA}.
+     */
+    public static String describe(List<Node> cycle) {
+        StringBuilder sb = new StringBuilder();
+        for (Node node : cycle) {
+            sb.append(node.getName()).append(" -> ");
+        }
+        return sb.append(cycle.get(0).getName()).toString();
     }
 
     // PRINT THE GRAPH
@@ -0,0 +1,177 @@
+package configs;
+
+import graph.TopicManagerSingleton.TopicManager;
+import utils.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * The GraphInstance class is one named, isolated computation graph.
+ * It owns its own TopicManager, the agents created by its configuration and the Graph built from them,
+ * so loading or closing one instance never affects another.
+ */
+public class GraphInstance {
+    private final String name;
+    private volatile TopicManager topicManager = new TopicManager();
+    private volatile GenericConfig config;
+    private volatile Graph graph = new Graph();
+    private volatile GraphView view = new GraphView(graph, topicManager, 0);
+    private volatile boolean closed;
+
+    /**
+     * Creates an empty graph instance with the given name.
+     */
+    public GraphInstance(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Replaces the running configuration with the one in the given file.
+     *
+     * @param confFile path to the configuration file
+     * @return the graph structure of the new configuration
+     * @throws IOException if the file cannot be read
+     * @see #load(ConfigParser.ConfigInfo)
+     */
+    public Graph load(String confFile) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(confFile))) {
+            return load(ConfigParser.parseConfig(reader));
+        }
+    }
+
+    /**
+     * Replaces the running configuration with a parsed one.
+     * The new agents are created with a fresh TopicManager before the previous agents are closed,
+     * so an agent rejecting its block leaves the running configuration untouched. Cycles of the new
+     * graph are logged.
+     *
+     * @param configInfo the parsed configuration
+     * @return the graph structure of the new configuration
+     * @throws IllegalArgumentException if an agent cannot be created
+     * @throws IllegalStateException if the instance was closed
+     */
+    public synchronized Graph load(ConfigParser.ConfigInfo configInfo) {
+        checkOpen();
+        TopicManager manager = new TopicManager();
+        GenericConfig newConfig = new GenericConfig();
+        newConfig.setTopicManager(manager);
+        newConfig.create(configInfo);
+
+        if (config != null) {
+            Logger.info("GraphInstance " + name + ": Closing previous config");
+            config.close();
+        }
+
+        Graph newGraph = new Graph();
+        newGraph.createFromTopics(manager);
+        for (List<Node> cycle : newGraph.findCycles()) {
+            Logger.warn("GraphInstance " + name + ": Graph contains cycle " + Graph.describe(cycle));
+        }
+
+        this.topicManager = manager;
+        this.config = newConfig;
+        this.graph = newGraph;
+        this.view = new GraphView(newGraph, manager, view.getVersion() + 1);
+        return newGraph;
+    }
+
+    /**
+     * Applies a new version of the configuration in the given file to the running agents.
+     *
+     * @param confFile path to the new configuration file
+     * @return the graph structure of the new configuration
+     * @throws IOException if the file cannot be read
+     * @see #reload(ConfigParser.ConfigInfo)
+     */
+    public Graph reload(String confFile) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(confFile))) {
+            return reload(ConfigParser.parseConfig(reader));
+        }
+    }
+
+    /**
+     * Applies a new version of the configuration to the running agents, keeping the ones that did not change.
+     * Falls back to a full load if nothing is running yet or the configuration-wide options changed.
+     * The graph structure is updated in place, so only the changed edges are checked for cycles.
+     *
+     * @param configInfo the parsed new configuration
+     * @return the graph structure of the new configuration
+     * @throws IllegalArgumentException if an agent cannot be created; the running agents are not changed in that case
+     * @throws IllegalStateException if the instance was closed
+     */
+    public synchronized Graph reload(ConfigParser.ConfigInfo configInfo) {
+        checkOpen();
+        if (config == null || !config.reload(configInfo)) {
+            return load(configInfo);
+        }
+        for (List<Node> cycle : graph.updateFromTopics(topicManager)) {
+            Logger.warn("GraphInstance " + name + ": Reload closes cycle " + Graph.describe(cycle));
+        }
+        this.view = new GraphView(graph, topicManager, view.getVersion() + 1);
+        return graph;
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("GraphInstance " + name + " is closed");
+        }
+    }
+
+    /**
+     * Returns the name of the instance.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the topic manager of the running configuration.
+     */
+    public TopicManager getTopicManager() {
+        return topicManager;
+    }
+
+    /**
+     * Returns the running configuration, or null if none was loaded yet.
+     */
+    public GenericConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Returns the graph structure of the running configuration.
+     */
+    public Graph getGraph() {
+        return graph;
+    }
+
+    /**
+     * Returns the versioned view of the graph's topic values and agent equations.
+     */
+    public GraphView getView() {
+        return view;
+    }
+
+    /**
+     * Returns true once the instance was closed, e.g. because its graph was destroyed.
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Closes the running configuration and stops its agents. The instance cannot be loaded afterwards.
+     */
+    public synchronized void close() {
+        closed = true;
+        if (config != null) {
+            Logger.info("GraphInstance " + name + ": Closing config");
+            config.close();
+            config = null;
+        }
+    }
+}
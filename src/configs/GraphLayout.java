@@ -0,0 +1,450 @@
+package configs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The GraphLayout class places the nodes of a graph on the server and, for large graphs, groups them into clusters
+ * so the browser only draws a bounded number of nodes.
+ *
+ * Every node gets a layer (its longest distance from a node without inputs) and a row within the layer, ordered
+ * by the rows of its inputs; the coordinates follow from the two. Graphs of more than {@link #DETAIL_LIMIT} nodes
+ * are clustered: chains of nodes with a single input and a single output collapse into one cluster, and if more
+ * than {@link #MAX_CLUSTERS} remain, neighbouring clusters of the same layer are merged into bands, every layer
+ * getting a share of the budget in proportion to its clusters. A graph with more layers than the budget first
+ * has runs of adjacent layers merged into one band each. A cluster is drawn at the centre of its members, which
+ * keep their own coordinates for when the browser expands it.
+ *
+ * The layout is a snapshot: it does not follow later changes to the graph.
+ */
+public class GraphLayout {
+    /** Graphs up to this many nodes are drawn node by node */
+    public static final int DETAIL_LIMIT = 300;
+    /** Clustering merges bands until at most this many clusters remain */
+    public static final int MAX_CLUSTERS = 400;
+    private static final double LAYER_SPACING = 200;
+    private static final double ROW_SPACING = 100;
+
+    private final String[] names;
+    private final int[][] successors;
+    private final int[][] predecessors;
+    private final double[] x;
+    private final double[] y;
+    private final List<Cluster> clusters = new ArrayList<>();
+    private final Map<String, Cluster> clustersById = new HashMap<>();
+    private final int[] clusterOf;     // node -> index of its cluster
+    private final List<int[]> clusterEdges = new ArrayList<>();
+    private final boolean clustered;
+
+    /**
+     * A group of nodes drawn as one. A cluster of one node is drawn as that node and has its id.
+     */
+    public static class Cluster {
+        private final String id;
+        private final int[] members;   // in layer and row order
+        private final String label;
+        private final double x;
+        private final double y;
+
+        Cluster(String id, int[] members, String label, double x, double y) {
+            this.id = id;
+            this.members = members;
+            this.label = label;
+            this.x = x;
+            this.y = y;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public int[] getMembers() {
+            return members;
+        }
+
+        public boolean isSingle() {
+            return members.length == 1;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public double getX() {
+            return x;
+        }
+
+        public double getY() {
+            return y;
+        }
+    }
+
+    /**
+     * Lays out the given graph, clustering it if it has more than {@link #DETAIL_LIMIT} nodes.
+     */
+    public GraphLayout(Graph graph) {
+        int n = graph.size();
+        names = new String[n];
+        Map<Node, Integer> index = new IdentityHashMap<>(n * 2);
+        for (int i = 0; i < n; i++) {
+            names[i] = graph.get(i).getName();
+            index.put(graph.get(i), i);
+        }
+        successors = new int[n][];
+        int[] inDegree = new int[n];
+        for (int v = 0; v < n; v++) {
+            List<Node> edges = graph.get(v).getEdges();
+            int[] targets = new int[edges.size()];
+            int count = 0;
+            for (Node target : edges) {
+                Integer w = index.get(target);
+                if (w != null) {
+                    targets[count++] = w;
+                    inDegree[w]++;
+                }
+            }
+            successors[v] = count == targets.length ? targets : Arrays.copyOf(targets, count);
+        }
+        predecessors = new int[n][];
+        for (int v = 0; v < n; v++) {
+            predecessors[v] = new int[inDegree[v]];
+        }
+        int[] filled = new int[n];
+        for (int v = 0; v < n; v++) {
+            for (int w : successors[v]) {
+                predecessors[w][filled[w]++] = v;
+            }
+        }
+
+        int[] layer = assignLayers();
+        int[][] layers = orderRows(layer);
+        x = new double[n];
+        y = new double[n];
+        int[] row = new int[n];
+        for (int l = 0; l < layers.length; l++) {
+            for (int r = 0; r < layers[l].length; r++) {
+                int v = layers[l][r];
+                row[v] = r;
+                x[v] = l * LAYER_SPACING;
+                y[v] = (r - (layers[l].length - 1) / 2.0) * ROW_SPACING;
+            }
+        }
+
+        clustered = n > DETAIL_LIMIT;
+        clusterOf = new int[n];
+        if (clustered) {
+            buildClusters(layer, row, layers);
+        } else {
+            for (int v = 0; v < n; v++) {
+                addCluster(new int[] {v});
+            }
+        }
+        linkClusters();
+    }
+
+    /**
+     * Assigns every node its longest distance from a node without inputs, with Kahn's algorithm.
+     * When only cycles are left, the earliest remaining node is taken next, ignoring its unplaced inputs.
+     */
+    private int[] assignLayers() {
+        int n = names.length;
+        int[] layer = new int[n];
+        int[] remaining = new int[n];
+        boolean[] placed = new boolean[n];
+        int[] queue = new int[n];
+        int head = 0;
+        int tail = 0;
+        for (int v = 0; v < n; v++) {
+            remaining[v] = predecessors[v].length;
+            if (remaining[v] == 0) {
+                queue[tail++] = v;
+                placed[v] = true;
+            }
+        }
+        int next = 0;  // scan position for breaking cycles
+        while (tail < n || head < tail) {
+            if (head == tail) {
+                while (placed[next]) {
+                    next++;
+                }
+                queue[tail++] = next;
+                placed[next] = true;
+            }
+            int v = queue[head++];
+            for (int w : successors[v]) {
+                if (placed[w]) {
+                    continue;
+                }
+                layer[w] = Math.max(layer[w], layer[v] + 1);
+                if (--remaining[w] == 0) {
+                    queue[tail++] = w;
+                    placed[w] = true;
+                }
+            }
+        }
+        return layer;
+    }
+
+    /**
+     * Groups the nodes by layer and orders each layer by the mean row of the node's inputs in earlier layers,
+     * so edges cross less. Nodes without such inputs keep their graph order.
+     */
+    private int[][] orderRows(int[] layer) {
+        int n = names.length;
+        int layerCount = 0;
+        int[] sizes = new int[n + 1];
+        for (int v = 0; v < n; v++) {
+            layerCount = Math.max(layerCount, layer[v] + 1);
+            sizes[layer[v]]++;
+        }
+        int[][] layers = new int[layerCount][];
+        for (int l = 0; l < layerCount; l++) {
+            layers[l] = new int[sizes[l]];
+        }
+        int[] filled = new int[layerCount];
+        for (int v = 0; v < n; v++) {
+            layers[layer[v]][filled[layer[v]]++] = v;
+        }
+
+        int[] row = new int[n];
+        double[] weight = new double[n];
+        for (int[] nodes : layers) {
+            for (int v : nodes) {
+                double sum = 0;
+                int count = 0;
+                for (int u : predecessors[v]) {
+                    if (layer[u] < layer[v]) {
+                        sum += row[u];
+                        count++;
+                    }
+                }
+                weight[v] = count > 0 ? sum / count : Double.MAX_VALUE;
+            }
+            Integer[] sorted = new Integer[nodes.length];
+            for (int r = 0; r < nodes.length; r++) {
+                sorted[r] = nodes[r];
+            }
+            Arrays.sort(sorted, (a, b) -> Double.compare(weight[a], weight[b]));  // stable, keeps graph order
+            for (int r = 0; r < nodes.length; r++) {
+                nodes[r] = sorted[r];
+                row[nodes[r]] = r;
+            }
+        }
+        return layers;
+    }
+
+    private void buildClusters(int[] layer, int[] row, int[][] layers) {
+        int n = names.length;
+
+        // Link u to v when v is u's only output and u is v's only input
+        int[] next = new int[n];
+        boolean[] linked = new boolean[n];  // has a link into it
+        Arrays.fill(next, -1);
+        for (int u = 0; u < n; u++) {
+            if (successors[u].length == 1) {
+                int v = successors[u][0];
+                if (v != u && predecessors[v].length == 1) {
+                    next[u] = v;
+                    linked[v] = true;
+                }
+            }
+        }
+
+        // Every chain, and every node outside a chain, is a unit; a unit sits at the layer and row of its head
+        List<int[]> units = new ArrayList<>();
+        int[] unitOf = new int[n];
+        Arrays.fill(unitOf, -1);
+        for (int[] nodes : layers) {
+            for (int v : nodes) {
+                if (linked[v] || unitOf[v] >= 0) {
+                    continue;
+                }
+                List<Integer> chain = new ArrayList<>();
+                for (int w = v; w >= 0 && unitOf[w] < 0; w = next[w]) {
+                    unitOf[w] = units.size();
+                    chain.add(w);
+                }
+                units.add(chain.stream().mapToInt(Integer::intValue).toArray());
+            }
+        }
+        for (int v = 0; v < n; v++) {
+            if (unitOf[v] < 0) {  // on a ring of links, which no head reaches
+                unitOf[v] = units.size();
+                units.add(new int[] {v});
+            }
+        }
+
+        // Merge runs of units into at most MAX_CLUSTERS bands: a layer with more units gets more bands
+        List<List<int[]>> byLayer = new ArrayList<>();
+        for (int l = 0; l < layers.length; l++) {
+            byLayer.add(new ArrayList<>());
+        }
+        for (int[] unit : units) {
+            byLayer.get(layer[unit[0]]).add(unit);
+        }
+        byLayer.removeIf(List::isEmpty);
+        for (List<int[]> layerUnits : byLayer) {
+            layerUnits.sort((a, b) -> Integer.compare(row[a[0]], row[b[0]]));
+        }
+        if (byLayer.size() > MAX_CLUSTERS) {
+            // Too many layers for one band each, so adjacent layers share a band
+            List<List<int[]>> merged = new ArrayList<>();
+            for (int g = 0; g < MAX_CLUSTERS; g++) {
+                List<int[]> group = new ArrayList<>();
+                for (int l = g * byLayer.size() / MAX_CLUSTERS; l < (g + 1) * byLayer.size() / MAX_CLUSTERS; l++) {
+                    group.addAll(byLayer.get(l));
+                }
+                merged.add(group);
+            }
+            byLayer = merged;
+        }
+        int total = units.size();
+        int spare = MAX_CLUSTERS - byLayer.size();  // bands left after one per layer
+        for (List<int[]> layerUnits : byLayer) {
+            int count = layerUnits.size();
+            // One band per layer, and a share of the others in proportion to the layer's further units
+            int bands = total <= MAX_CLUSTERS ? count
+                    : 1 + (int) ((long) (count - 1) * spare / (total - byLayer.size()));
+            for (int b = 0; b < bands; b++) {
+                List<int[]> group = layerUnits.subList(b * count / bands, (b + 1) * count / bands);
+                int size = 0;
+                for (int[] unit : group) {
+                    size += unit.length;
+                }
+                int[] members = new int[size];
+                int k = 0;
+                for (int[] unit : group) {
+                    System.arraycopy(unit, 0, members, k, unit.length);
+                    k += unit.length;
+                }
+                addCluster(members);
+            }
+        }
+    }
+
+    private void addCluster(int[] members) {
+        int index = clusters.size();
+        double sumX = 0;
+        double sumY = 0;
+        for (int v : members) {
+            clusterOf[v] = index;
+            sumX += x[v];
+            sumY += y[v];
+        }
+        Cluster cluster;
+        if (members.length == 1) {
+            int member = members[0];
+            cluster = new Cluster(names[member], members, displayName(names[member]), x[member], y[member]);
+        } else {
+            String label = displayName(names[members[0]]) + " ... " + displayName(names[members[members.length - 1]])
+                    + "\n" + members.length + " nodes";
+            cluster = new Cluster("C" + index, members, label, sumX / members.length, sumY / members.length);
+        }
+        clusters.add(cluster);
+        clustersById.put(cluster.getId(), cluster);
+    }
+
+    private void linkClusters() {
+        Set<Long> seen = new HashSet<>();
+        for (int v = 0; v < names.length; v++) {
+            for (int w : successors[v]) {
+                int from = clusterOf[v];
+                int to = clusterOf[w];
+                if (from != to && seen.add(((long) from << 32) | to)) {
+                    clusterEdges.add(new int[] {from, to});
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the name of a node without its type prefix and UUID suffix, e.g. {@code PlusAgent} for
+     * {@code APlusAgent_1234abcd}.
+     */
+    public static String displayName(String nodeName) {
+        String label = nodeName.substring(1);
+        int underscore = label.lastIndexOf('_');
+        if (nodeName.startsWith("A") && underscore > 0) {
+            label = label.substring(0, underscore);
+        }
+        return label;
+    }
+
+    /**
+     * Returns whether the graph was large enough to be clustered.
+     */
+    public boolean isClustered() {
+        return clustered;
+    }
+
+    /**
+     * Returns the number of nodes.
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * Returns the name of a node, the same as in the graph.
+     */
+    public String getName(int node) {
+        return names[node];
+    }
+
+    public double getX(int node) {
+        return x[node];
+    }
+
+    public double getY(int node) {
+        return y[node];
+    }
+
+    /**
+     * Returns the nodes a node has edges to.
+     */
+    public int[] getSuccessors(int node) {
+        return successors[node];
+    }
+
+    /**
+     * Returns the nodes that have edges to a node.
+     */
+    public int[] getPredecessors(int node) {
+        return predecessors[node];
+    }
+
+    /**
+     * Returns the clusters, in layer order.
+     */
+    public List<Cluster> getClusters() {
+        return Collections.unmodifiableList(clusters);
+    }
+
+    /**
+     * Returns the cluster with the given id, or null if there is none.
+     */
+    public Cluster getCluster(String id) {
+        return clustersById.get(id);
+    }
+
+    /**
+     * Returns the cluster a node belongs to.
+     */
+    public Cluster clusterOf(int node) {
+        return clusters.get(clusterOf[node]);
+    }
+
+    /**
+     * Returns the edges between clusters, each once, as pairs of indices into {@link #getClusters()}.
+     */
+    public List<int[]> getClusterEdges() {
+        return Collections.unmodifiableList(clusterEdges);
+    }
+}
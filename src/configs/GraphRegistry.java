@@ -0,0 +1,99 @@
+package configs;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * The GraphRegistry class holds the named graph instances running on a server.
+ * Instances are created on first use and can be created and destroyed concurrently.
+ * Requests address an instance through URIs of the form /g/{graph}/...; other URIs use the default instance.
+ */
+public class GraphRegistry {
+    /** Name of the instance used by requests that do not name a graph */
+    public static final String DEFAULT_GRAPH = "default";
+    /** URI segment that introduces a graph name */
+    public static final String GRAPH_SEGMENT = "g";
+
+    private static final Pattern VALID_NAME = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    private final ConcurrentHashMap<String, GraphInstance> instances = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a registry containing an empty default instance.
+     */
+    public GraphRegistry() {
+        getOrCreate(DEFAULT_GRAPH);
+    }
+
+    /**
+     * Returns the instance with the given name, creating an empty one if it does not exist.
+     *
+     * @throws IllegalArgumentException if the name contains characters other than letters, digits, '-' and '_'
+     */
+    public GraphInstance getOrCreate(String name) {
+        checkName(name);
+        return instances.computeIfAbsent(name, GraphInstance::new);
+    }
+
+    /**
+     * Checks that a name can name an instance, without creating one.
+     *
+     * @throws IllegalArgumentException if the name contains characters other than letters, digits, '-' and '_'
+     */
+    public static void checkName(String name) {
+        if (!VALID_NAME.matcher(name).matches()) {
+            throw new IllegalArgumentException("Invalid graph name: " + name);
+        }
+    }
+
+    /**
+     * Returns the instance with the given name, or null if there is none.
+     */
+    public GraphInstance get(String name) {
+        return instances.get(name);
+    }
+
+    /**
+     * Removes the instance with the given name and closes its agents.
+     *
+     * @return true if the instance existed
+     */
+    public boolean destroy(String name) {
+        GraphInstance instance = instances.remove(name);
+        if (instance == null) {
+            return false;
+        }
+        instance.close();
+        return true;
+    }
+
+    /**
+     * Returns the names of all instances.
+     */
+    public Collection<String> getNames() {
+        return new ArrayList<>(instances.keySet());
+    }
+
+    /**
+     * Closes and removes all instances.
+     */
+    public void closeAll() {
+        for (String name : getNames()) {
+            destroy(name);
+        }
+    }
+
+    /**
+     * Extracts the graph name from the URI segments of a request, e.g. ["g", "tenant1", "publish"].
+     *
+     * @return the graph name, or DEFAULT_GRAPH if the URI does not name one
+     */
+    public static String graphName(String[] uriSegments) {
+        if (uriSegments.length >= 2 && uriSegments[0].equals(GRAPH_SEGMENT)) {
+            return uriSegments[1];
+        }
+        return DEFAULT_GRAPH;
+    }
+}
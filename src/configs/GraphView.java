@@ -0,0 +1,145 @@
+package configs;
+
+import graph.Agent;
+import graph.Message;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The GraphView class is the versioned state of a graph as shown in the browser: the value of every topic node
+ * and the equation of every agent node.
+ *
+ * The structure is fixed when the view is created. Every {@link #refresh()} that finds changed nodes starts a new
+ * version, and clients that report the version they last saw receive only the nodes changed since then.
+ * Versions keep increasing when a view replaces an older one, so a client of the old view gets every node.
+ * The view also holds the {@link GraphLayout} the browser draws the graph with, indexed like the view's nodes.
+ */
+public class GraphView {
+    private final String[] nodeIds;
+    private final Topic[] topics;    // node -> topic, null for agent nodes and topics that no longer exist
+    private final Agent[] agents;    // node -> agent, null for topic nodes
+    private final String[] texts;    // node -> last seen value or equation
+    private final long[] changedAt;  // node -> version of its last change
+    private final GraphLayout layout;
+    private long version;
+
+    /**
+     * One changed node.
+     */
+    public static class Change {
+        public final String nodeId;
+        public final String text;
+        public final boolean topic;
+
+        Change(String nodeId, String text, boolean topic) {
+            this.nodeId = nodeId;
+            this.text = text;
+            this.topic = topic;
+        }
+    }
+
+    /**
+     * Creates the view of a graph with the current values of its topics and agents.
+     * Topics are looked up without creating them; a topic node whose topic does not exist is left out.
+     *
+     * @param graph the graph structure
+     * @param topicManager the topic manager the graph was built from
+     * @param version the version of the new view, higher than that of any view it replaces
+     */
+    public GraphView(Graph graph, TopicManagerSingleton.TopicManager topicManager, long version) {
+        int n = graph.size();
+        this.nodeIds = new String[n];
+        this.topics = new Topic[n];
+        this.agents = new Agent[n];
+        this.texts = new String[n];
+        this.changedAt = new long[n];
+        this.version = version;
+        for (int i = 0; i < n; i++) {
+            String nodeId = graph.get(i).getName();
+            nodeIds[i] = nodeId;
+            if (isTopicNode(i)) {
+                topics[i] = topicManager.findTopic(nodeId.substring(1));
+            } else {
+                agents[i] = topicManager.getAgents().getByNodeId(nodeId);
+            }
+            texts[i] = currentText(i);
+            changedAt[i] = version;
+        }
+        this.layout = new GraphLayout(graph);
+    }
+
+    private boolean isTopicNode(int node) {
+        return nodeIds[node].startsWith("T");
+    }
+
+    private String currentText(int node) {
+        if (isTopicNode(node)) {
+            Message message = topics[node] != null ? topics[node].getLastMessage() : null;
+            return message != null ? message.asText : "";
+        }
+        Message equation = agents[node] != null ? agents[node].getEquation() : null;
+        return equation != null ? equation.asText : "?";
+    }
+
+    /**
+     * Compares every node with its current value, starting a new version if any of them changed.
+     *
+     * @return the current version
+     */
+    public synchronized long refresh() {
+        boolean changed = false;
+        for (int i = 0; i < nodeIds.length; i++) {
+            String text = currentText(i);
+            if (!text.equals(texts[i])) {
+                if (!changed) {
+                    version++;
+                    changed = true;
+                }
+                texts[i] = text;
+                changedAt[i] = version;
+            }
+        }
+        return version;
+    }
+
+    /**
+     * Returns the nodes that changed after the given version, as of the last refresh.
+     *
+     * @param since the version the client last saw, or a negative number for all nodes
+     */
+    public synchronized List<Change> changesSince(long since) {
+        List<Change> changes = new ArrayList<>();
+        for (int i = 0; i < nodeIds.length; i++) {
+            if (changedAt[i] > since && (topics[i] != null || !isTopicNode(i))) {
+                changes.add(new Change(nodeIds[i], texts[i], topics[i] != null));
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Returns the value or equation of a node as of the last refresh.
+     *
+     * @param node the index of the node in the graph and the layout
+     */
+    public synchronized String getText(int node) {
+        return texts[node];
+    }
+
+    /**
+     * Returns the layout of the graph's nodes.
+     */
+    public GraphLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * Returns the version as of the last refresh.
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+}
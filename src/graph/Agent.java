@@ -5,6 +5,25 @@ public interface Agent {
     String getUUID();  // Add unique identifier for each agent instance
     void reset();
     void callback(String topic, Message msg);
+
+    /**
+     * Handles the first count messages of a batch drained from the agent's queue, in arrival order.
+     * Agents that only care about the latest input values can override this to emit one result per batch.
+     */
+    default void callbackBatch(String[] topics, Message[] msgs, int count) {
+        for (int i = 0; i < count; i++) {
+            callback(topics[i], msgs[i]);
+        }
+    }
+
+    /**
+     * Tells whether each result depends only on the message that triggered it, so that messages can be
+     * handled by several instances of the agent in any order. Such agents may be replicated round-robin.
+     */
+    default boolean isStateless() {
+        return false;
+    }
+
     void close();
     Message getEquation();  // Get the current equation with values
 }
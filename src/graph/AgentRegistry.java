@@ -0,0 +1,100 @@
+package graph;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The AgentRegistry class indexes the agents connected to the topics of one TopicManager,
+ * by UUID and by the id of their node in the graph view.
+ *
+ * Topics keep it current: an agent is registered when it subscribes to or publishes on its first topic and
+ * removed when it leaves its last one, which agents do when they are closed. A ParallelAgent shares the UUID
+ * of the agent it wraps, so the pair counts as one agent.
+ */
+public class AgentRegistry {
+    private final ConcurrentHashMap<String, Entry> byUuid = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Agent> byNodeId = new ConcurrentHashMap<>();
+
+    /**
+     * A registered agent and the number of topic connections that keep it registered.
+     */
+    private static class Entry {
+        final Agent agent;
+        final String nodeId;
+        int connections;
+
+        Entry(Agent agent) {
+            this.agent = agent;
+            this.nodeId = nodeId(agent);
+        }
+    }
+
+    /**
+     * Returns the id of an agent's node in the graph view, e.g. {@code APlusAgent_1234abcd}.
+     */
+    public static String nodeId(Agent agent) {
+        return "A" + agent.getName() + "_" + agent.getUUID().substring(0, 8);
+    }
+
+    /**
+     * Records one more topic connection of an agent.
+     */
+    void connect(Agent agent) {
+        byUuid.compute(agent.getUUID(), (uuid, entry) -> {
+            if (entry == null) {
+                entry = new Entry(agent);
+                byNodeId.put(entry.nodeId, entry.agent);
+            }
+            entry.connections++;
+            return entry;
+        });
+    }
+
+    /**
+     * Records that an agent left a topic, removing it once it has no connections left.
+     */
+    void disconnect(Agent agent) {
+        byUuid.computeIfPresent(agent.getUUID(), (uuid, entry) -> {
+            if (--entry.connections > 0) {
+                return entry;
+            }
+            byNodeId.remove(entry.nodeId, entry.agent);
+            return null;
+        });
+    }
+
+    /**
+     * Returns the agent with the given UUID, or null if it is not connected to any topic.
+     */
+    public Agent get(String uuid) {
+        Entry entry = byUuid.get(uuid);
+        return entry != null ? entry.agent : null;
+    }
+
+    /**
+     * Returns the agent shown by the graph node with the given id, or null if there is none.
+     */
+    public Agent getByNodeId(String nodeId) {
+        return byNodeId.get(nodeId);
+    }
+
+    /**
+     * Returns a snapshot of the registered agents.
+     */
+    public Collection<Agent> getAgents() {
+        return new ArrayList<>(byNodeId.values());
+    }
+
+    /**
+     * Returns the number of registered agents.
+     */
+    public int size() {
+        return byUuid.size();
+    }
+
+    void clear() {
+        byUuid.clear();
+        byNodeId.clear();
+    }
+}
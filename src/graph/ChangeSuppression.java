@@ -0,0 +1,45 @@
+package graph;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The ChangeSuppression class decides whether an agent holds back a result that differs from the last result
+ * it published, for the same key, by at most an epsilon. The agent keeps its previous result per key itself,
+ * so values that others publish to the same topic are neither compared nor held back.
+ */
+public final class ChangeSuppression {
+    private volatile double epsilon = -1;  // negative when suppression is off
+    private final LongAdder suppressed = new LongAdder();
+
+    /**
+     * Sets the epsilon; 0 holds back equal results only, a negative epsilon turns suppression off.
+     */
+    public void setEpsilon(double epsilon) {
+        this.epsilon = epsilon;
+    }
+
+    /**
+     * Checks whether a new result is within the epsilon of the previous one, counting it if so.
+     *
+     * @param previous the result last published for the key, or NaN if there is none
+     * @param next the new result
+     */
+    public boolean isUnchanged(double previous, double next) {
+        double e = epsilon;
+        if (e < 0 || Double.isNaN(previous)) {
+            return false;
+        }
+        if (previous == next || Math.abs(previous - next) <= e) {
+            suppressed.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of results held back.
+     */
+    public long getSuppressedCount() {
+        return suppressed.sum();
+    }
+}
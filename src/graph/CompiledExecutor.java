@@ -0,0 +1,279 @@
+package graph;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The CompiledExecutor class evaluates an acyclic graph of FunctionalAgents synchronously on the publishing thread.
+ *
+ * At compile time the agents are sorted topologically and every topic gets a primitive slot, indexed by its id.
+ * A publish stores the value in its slot and re-evaluates only the agents downstream of it, in topological
+ * order, so every agent sees a consistent set of inputs and no queue or thread hop is involved.
+ * Several topics can be published as one wave, in which case every affected agent is evaluated once,
+ * after all of its changed inputs have been applied. Waves are numbered by the topic manager's epoch.
+ * Topic messages are only materialized when someone reads them.
+ */
+public class CompiledExecutor {
+    private final TopicManagerSingleton.TopicManager manager;
+    private final Topic[] topics;              // slot -> topic, null for topics outside the plan
+    private final double[] slots;              // slot -> latest value, NaN if none
+    private final Message[] messages;          // slot -> latest message, null if not materialized yet
+    private final FunctionalAgent[] steps;     // agents in topological order
+    private final int[][] inputSlots;          // step -> slots of its inputs
+    private final int[][] outputSlots;         // step -> slots of its outputs
+    private final double[][] arguments;        // step -> reusable argument array
+    private final int[][] consumers;           // slot -> steps reading it
+    private final BitSet pending;              // steps to evaluate in the current wave
+    private long epoch;                        // epoch of the last wave
+
+    private CompiledExecutor(TopicManagerSingleton.TopicManager manager, Topic[] topics, FunctionalAgent[] steps, int[][] inputSlots, int[][] outputSlots,
+                             int[][] consumers) {
+        this.manager = manager;
+        this.topics = topics;
+        this.slots = new double[topics.length];
+        this.messages = new Message[topics.length];
+        this.steps = steps;
+        this.inputSlots = inputSlots;
+        this.outputSlots = outputSlots;
+        this.consumers = consumers;
+        this.arguments = new double[steps.length][];
+        for (int i = 0; i < steps.length; i++) {
+            arguments[i] = new double[inputSlots[i].length];
+        }
+        this.pending = new BitSet(steps.length);
+        Arrays.fill(slots, Double.NaN);
+    }
+
+    /**
+     * Compiles the given agents into an evaluation plan and binds their topics to it.
+     * From then on publishing to any of these topics is handled by the plan instead of the topic's subscribers.
+     *
+     * @param manager the topic manager owning the agents' topics
+     * @param agents the agents to compile
+     * @return the compiled executor
+     * @throws IllegalStateException if the agents form a cycle
+     */
+    public static CompiledExecutor compile(TopicManagerSingleton.TopicManager manager, List<FunctionalAgent> agents) {
+        // Every topic's slot is its id in the topic manager
+        int n = agents.size();
+        int[][] inputs = new int[n][];
+        int[][] outputs = new int[n][];
+        for (int i = 0; i < n; i++) {
+            inputs[i] = idsOf(agents.get(i).getInputTopics(), manager);
+            outputs[i] = idsOf(agents.get(i).getOutputTopics(), manager);
+        }
+        int slotCount = manager.getTopicCount();
+        Topic[] topics = new Topic[slotCount];  // only the topics used by the plan, others stay null
+        for (int i = 0; i < n; i++) {
+            for (int s : inputs[i]) {
+                topics[s] = manager.getTopic(s);
+            }
+            for (int s : outputs[i]) {
+                topics[s] = manager.getTopic(s);
+            }
+        }
+
+        List<List<Integer>> readers = new ArrayList<>();
+        for (int s = 0; s < slotCount; s++) {
+            readers.add(new ArrayList<>());
+        }
+        for (int i = 0; i < n; i++) {
+            for (int s : inputs[i]) {
+                readers.get(s).add(i);
+            }
+        }
+
+        // Kahn's algorithm, ties resolved in configuration order
+        int[] inDegree = new int[n];
+        for (int i = 0; i < n; i++) {
+            for (int s : outputs[i]) {
+                for (int reader : readers.get(s)) {
+                    inDegree[reader]++;
+                }
+            }
+        }
+        ArrayDeque<Integer> ready = new ArrayDeque<>();
+        for (int i = 0; i < n; i++) {
+            if (inDegree[i] == 0) {
+                ready.add(i);
+            }
+        }
+        int[] order = new int[n];
+        int[] position = new int[n];
+        int sorted = 0;
+        while (!ready.isEmpty()) {
+            int i = ready.poll();
+            position[i] = sorted;
+            order[sorted++] = i;
+            for (int s : outputs[i]) {
+                for (int reader : readers.get(s)) {
+                    if (--inDegree[reader] == 0) {
+                        ready.add(reader);
+                    }
+                }
+            }
+        }
+        if (sorted < n) {
+            throw new IllegalStateException("Graph contains cycles and cannot be compiled");
+        }
+
+        // Lay the steps out in topological order
+        FunctionalAgent[] steps = new FunctionalAgent[n];
+        int[][] inputSlots = new int[n][];
+        int[][] outputSlots = new int[n][];
+        for (int k = 0; k < n; k++) {
+            steps[k] = agents.get(order[k]);
+            inputSlots[k] = inputs[order[k]];
+            outputSlots[k] = outputs[order[k]];
+        }
+        int[][] consumers = new int[slotCount][];
+        for (int s = 0; s < consumers.length; s++) {
+            List<Integer> slotReaders = readers.get(s);
+            consumers[s] = new int[slotReaders.size()];
+            for (int r = 0; r < consumers[s].length; r++) {
+                consumers[s][r] = position[slotReaders.get(r)];
+            }
+        }
+
+        CompiledExecutor executor = new CompiledExecutor(manager, topics, steps, inputSlots, outputSlots, consumers);
+        for (Topic topic : topics) {
+            if (topic != null) {
+                // Start from the topic's current value, which matters when a running plan is recompiled
+                Message last = topic.getLastMessage();
+                if (last != null) {
+                    executor.slots[topic.id] = last.asDouble;
+                    executor.messages[topic.id] = last;
+                }
+                topic.bind(executor);
+            }
+        }
+        return executor;
+    }
+
+    private static int[] idsOf(List<String> names, TopicManagerSingleton.TopicManager manager) {
+        int[] result = new int[names.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = manager.getTopic(names.get(i)).id;
+        }
+        return result;
+    }
+
+    /**
+     * Stores a published message in its slot and re-evaluates every agent downstream of it.
+     *
+     * @return the epoch of the wave
+     */
+    synchronized long publish(int slot, Message message) {
+        epoch = manager.nextEpoch();
+        apply(slot, message);
+        run();
+        return epoch;
+    }
+
+    /**
+     * Stores several published messages and re-evaluates the affected agents once, as a single wave.
+     *
+     * @return the epoch of the wave
+     */
+    synchronized long publishAll(List<Topic> targets, List<Message> values) {
+        epoch = manager.nextEpoch();
+        for (int i = 0; i < targets.size(); i++) {
+            apply(targets.get(i).id, values.get(i));
+        }
+        run();
+        return epoch;
+    }
+
+    private void apply(int slot, Message message) {
+        slots[slot] = message.asDouble;
+        messages[slot] = message;
+        markConsumers(slot);
+    }
+
+    /**
+     * Returns the latest message of a slot, creating it from the slot's value if needed.
+     */
+    synchronized Message getMessage(int slot) {
+        Message message = messages[slot];
+        if (message == null && !Double.isNaN(slots[slot])) {
+            message = new Message(slots[slot]);
+            messages[slot] = message;
+        }
+        return message;
+    }
+
+    private void markConsumers(int slot) {
+        for (int step : consumers[slot]) {
+            pending.set(step);
+        }
+    }
+
+    /**
+     * Evaluates the pending steps in topological order.
+     * Steps only ever mark steps after themselves, so one forward pass completes the wave.
+     */
+    private void run() {
+        for (int i = pending.nextSetBit(0); i >= 0; i = pending.nextSetBit(i + 1)) {
+            pending.clear(i);
+            int[] in = inputSlots[i];
+            double[] args = arguments[i];
+            boolean ready = true;
+            for (int k = 0; k < in.length; k++) {
+                double value = slots[in[k]];
+                if (Double.isNaN(value)) {
+                    ready = false; // an input has not received a value yet
+                    break;
+                }
+                args[k] = value;
+            }
+            if (!ready) {
+                continue;
+            }
+
+            double result;
+            try {
+                result = steps[i].evaluate(args);
+            } catch (Exception e) {
+                System.err.println("Error evaluating " + steps[i].getName() + ": " + e.getMessage());
+                continue;
+            }
+            if (Double.isNaN(result)) {
+                continue;
+            }
+            for (int out : outputSlots[i]) {
+                slots[out] = result;
+                messages[out] = null;
+                markConsumers(out);
+            }
+        }
+    }
+
+    /**
+     * Returns the epoch of the last wave evaluated by the plan.
+     */
+    public synchronized long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Returns the number of agents in the plan.
+     */
+    public int size() {
+        return steps.length;
+    }
+
+    /**
+     * Unbinds the topics so that they go back to notifying their subscribers directly.
+     * Each topic keeps the last value it had in the plan. Topics already taken over by a newer plan are left alone.
+     */
+    public synchronized void close() {
+        for (int s = 0; s < topics.length; s++) {
+            if (topics[s] != null && topics[s].executor() == this) {
+                topics[s].unbind(getMessage(s));
+            }
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package graph;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The FanOut class delivers the messages of topics with many subscribers in parallel.
+ *
+ * A topic with at least {@link #getThreshold()} subscribers hands each message to the FanOut instead of calling
+ * its subscribers one after the other. The subscribers are split into contiguous ranges, one per lane, and
+ * every lane calls its range on its own thread. A lane handles its messages in the order they were published,
+ * so each subscriber still sees a topic's messages in order, but a subscriber that is slow, or blocked on a full
+ * queue, only holds up the other subscribers of its lane. Lane queues are bounded; when one is full the
+ * overflow policy decides whether the publisher waits or the lane skips a message, see
+ * {@link #FanOut(int, int, int, OverflowPolicy, AtomicInteger)}. Even a waiting publisher first hands the
+ * message to every lane with room, so a full lane never keeps it from the others. The time from the publish
+ * until the last lane has called its subscribers is recorded per topic, see {@link Topic#getFanOutCount()}.
+ * Lane threads start with the first message.
+ */
+public class FanOut implements AutoCloseable {
+    private final int threshold;
+    private final Lane[] lanes;
+    private final OverflowPolicy policy;
+    private final AtomicInteger inFlight;
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * One message of one topic on its way to all lanes.
+     */
+    private static class Dispatch {
+        final Topic topic;
+        final Message message;
+        final Agent[] subscribers;
+        final long start;
+        final AtomicInteger remaining;  // lanes that have not called their subscribers yet
+
+        Dispatch(Topic topic, Message message, Agent[] subscribers, int lanes) {
+            this.topic = topic;
+            this.message = message;
+            this.subscribers = subscribers;
+            this.start = System.nanoTime();
+            this.remaining = new AtomicInteger(lanes);
+        }
+    }
+
+    /**
+     * A queue of dispatches and the thread calling one range of their subscribers.
+     */
+    private class Lane {
+        final int index;
+        final BlockingQueue<Dispatch> queue;
+        volatile Thread worker;
+        volatile boolean running = true;
+
+        Lane(int index, int capacity) {
+            this.index = index;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        /**
+         * Queues a dispatch for the lane's thread, applying the overflow policy if the queue is full. Holding the
+         * lane's monitor while waiting is safe: the thread taking from the queue never needs it.
+         *
+         * @return false if the lane is closed
+         */
+        synchronized boolean add(Dispatch dispatch) {
+            if (!running) {
+                return false;
+            }
+            ensureStarted();
+            switch (policy) {
+                case BLOCK:
+                    try {
+                        queue.put(dispatch);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        skip(dispatch);
+                    }
+                    break;
+                case DROP_NEWEST:
+                    if (!queue.offer(dispatch)) {
+                        skip(dispatch);
+                    }
+                    break;
+                case DROP_OLDEST:
+                case CONFLATE:
+                    while (!queue.offer(dispatch)) {
+                        Dispatch oldest = queue.poll();
+                        if (oldest != null) {
+                            skip(oldest);
+                        }
+                    }
+                    break;
+            }
+            return true;
+        }
+
+        /**
+         * Queues a dispatch if the lane has room, without applying the overflow policy.
+         *
+         * @return false if the lane is full or closed
+         */
+        synchronized boolean offer(Dispatch dispatch) {
+            if (!running) {
+                return false;
+            }
+            ensureStarted();
+            return queue.offer(dispatch);
+        }
+
+        private void ensureStarted() {
+            if (worker == null) {
+                Thread thread = new Thread(this::work);
+                thread.setDaemon(true);
+                thread.start();
+                worker = thread;
+            }
+        }
+
+        void work() {
+            while (running || !queue.isEmpty()) {
+                try {
+                    Dispatch dispatch = running ? queue.take() : queue.poll(0, TimeUnit.NANOSECONDS);
+                    if (dispatch != null) {
+                        deliver(dispatch);
+                    }
+                } catch (InterruptedException e) {
+                    // close() interrupts a blocked take(), the loop condition decides whether to drain or exit
+                }
+            }
+        }
+
+        void deliver(Dispatch dispatch) {
+            int lanesUsed = Math.min(lanes.length, dispatch.subscribers.length);
+            int from = (int) ((long) dispatch.subscribers.length * index / lanesUsed);
+            int to = (int) ((long) dispatch.subscribers.length * (index + 1) / lanesUsed);
+            try {
+                for (int i = from; i < to; i++) {
+                    try {
+                        dispatch.subscribers[i].callback(dispatch.topic.name, dispatch.message);
+                    } catch (RuntimeException e) {
+                        System.err.println("Error delivering " + dispatch.topic.name + " to "
+                                + dispatch.subscribers[i].getName() + ": " + e.getMessage());
+                    }
+                }
+            } finally {
+                done(dispatch);
+            }
+        }
+
+        /**
+         * Drops a dispatch without calling the lane's subscribers.
+         */
+        void skip(Dispatch dispatch) {
+            dropped.incrementAndGet();
+            done(dispatch);
+        }
+
+        void done(Dispatch dispatch) {
+            if (dispatch.remaining.decrementAndGet() == 0) {
+                dispatch.topic.recordFanOut(System.nanoTime() - dispatch.start);
+            }
+            inFlight.decrementAndGet();
+        }
+
+        void close() {
+            Thread thread;
+            synchronized (this) {
+                running = false;
+                thread = worker;
+            }
+            if (thread == null) {
+                return;
+            }
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Creates a FanOut.
+     *
+     * @param threshold the least number of subscribers of a topic whose messages are delivered in parallel
+     * @param laneCount the number of lanes, i.e. threads
+     * @param capacity the number of messages a lane can queue
+     * @param policy what to do when a lane's queue is full: BLOCK makes the publisher wait, DROP_NEWEST skips the
+     *               new message and DROP_OLDEST the oldest queued one on that lane. CONFLATE is treated as
+     *               DROP_OLDEST, the lanes do not keep messages per topic and key.
+     * @param inFlight the counter of queued or in-progress messages of the graph; a message counts once per
+     *                 lane until the lane has called its subscribers
+     */
+    public FanOut(int threshold, int laneCount, int capacity, OverflowPolicy policy, AtomicInteger inFlight) {
+        if (threshold < 1 || laneCount < 1 || capacity < 1) {
+            throw new IllegalArgumentException("Fan-out threshold, lanes and capacity must be at least 1");
+        }
+        this.threshold = threshold;
+        this.policy = policy;
+        this.inFlight = inFlight;
+        this.lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane(i, capacity);
+        }
+    }
+
+    /**
+     * Returns the least number of subscribers of a topic whose messages are delivered in parallel.
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Returns how many times a lane skipped a message because its queue was full.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Hands a message to the lanes, which call the subscribers. Returns without waiting for them.
+     */
+    void dispatch(Topic topic, Agent[] subscribers, Message message) {
+        int lanesUsed = Math.min(lanes.length, subscribers.length);
+        Dispatch dispatch = new Dispatch(topic, message, subscribers, lanesUsed);
+        inFlight.addAndGet(lanesUsed);
+        if (policy == OverflowPolicy.BLOCK) {
+            // Lanes with room take the message first, the publisher then waits for the full ones
+            boolean[] full = null;
+            for (int i = 0; i < lanesUsed; i++) {
+                if (!lanes[i].offer(dispatch)) {
+                    if (full == null) {
+                        full = new boolean[lanesUsed];
+                    }
+                    full[i] = true;
+                }
+            }
+            if (full == null) {
+                return;
+            }
+            for (int i = 0; i < lanesUsed; i++) {
+                if (full[i]) {
+                    add(i, dispatch);
+                }
+            }
+        } else {
+            for (int i = 0; i < lanesUsed; i++) {
+                add(i, dispatch);
+            }
+        }
+    }
+
+    private void add(int lane, Dispatch dispatch) {
+        if (!lanes[lane].add(dispatch)) {
+            lanes[lane].deliver(dispatch);  // Closed, call the subscribers on the publishing thread
+        }
+    }
+
+    /**
+     * Stops the lane threads once they have delivered their queued messages.
+     * Messages dispatched afterwards are delivered on the publishing thread.
+     */
+    @Override
+    public void close() {
+        for (Lane lane : lanes) {
+            lane.close();
+        }
+    }
+}
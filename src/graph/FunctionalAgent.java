@@ -0,0 +1,27 @@
+package graph;
+
+import java.util.List;
+
+/**
+ * An agent whose output is a pure function of the latest numeric values of its input topics.
+ * Such agents can be evaluated in-line by a {@link CompiledExecutor} instead of through callbacks and queues.
+ */
+public interface FunctionalAgent extends Agent {
+    /**
+     * Returns the names of the input topics, in the order evaluate expects their values.
+     */
+    List<String> getInputTopics();
+
+    /**
+     * Returns the names of the topics the result is published to.
+     */
+    List<String> getOutputTopics();
+
+    /**
+     * Computes the agent's output and records the inputs for its equation.
+     *
+     * @param inputs the latest value of each input topic, ordered like getInputTopics()
+     * @return the result, or NaN if nothing should be published
+     */
+    double evaluate(double[] inputs);
+}
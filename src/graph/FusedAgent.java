@@ -0,0 +1,67 @@
+package graph;
+
+/**
+ * The FusedAgent class runs an agent directly on the thread that publishes to its input topics, instead of
+ * through a queue and a worker thread of its own.
+ *
+ * GenericConfig fuses an agent whose inputs are all published by one other agent and read by no one else,
+ * so a linear chain of agents is processed as one task on the mailbox of its first agent. The topics between
+ * the agents still receive every value. Calls are serialized, so a message published to one of these topics
+ * from elsewhere, e.g. by a user, is still handled safely, on the publishing thread.
+ */
+public class FusedAgent implements Agent {
+    private final Agent agent;
+
+    /**
+     * Creates a FusedAgent for the specified agent.
+     */
+    public FusedAgent(Agent agent) {
+        this.agent = agent;
+    }
+
+    @Override
+    public synchronized void callback(String topic, Message message) {
+        agent.callback(topic, message);
+    }
+
+    @Override
+    public synchronized void callbackBatch(String[] topics, Message[] msgs, int count) {
+        agent.callbackBatch(topics, msgs, count);
+    }
+
+    /**
+     * Returns the name of the agent.
+     */
+    @Override
+    public String getName() {
+        return agent.getName();
+    }
+
+    /**
+     * Returns the UUID of the agent.
+     */
+    @Override
+    public String getUUID() {
+        return agent.getUUID();
+    }
+
+    /**
+     * Resets the agent.
+     */
+    @Override
+    public synchronized void reset() {
+        agent.reset();
+    }
+
+    @Override
+    public Message getEquation() {
+        return agent.getEquation();
+    }
+
+    /**
+     * Does nothing, a fused agent has no thread to stop.
+     */
+    @Override
+    public void close() {
+    }
+}
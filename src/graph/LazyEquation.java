@@ -0,0 +1,82 @@
+package graph;
+
+import java.util.Arrays;
+
+/**
+ * The LazyEquation class holds the operands of an agent's equation and renders its display text only when
+ * it is read, e.g. by the topic table or the graph view. The text is cached until an operand changes,
+ * so an agent that is never displayed never formats a number.
+ *
+ * Operands are set by the agent while it computes, and the text can be read from any thread: a reader
+ * renders the operands between two reads of the change counter and caches the text only if no operand
+ * changed in between.
+ */
+public class LazyEquation {
+    private final String[] parts;      // parts[i] comes before operand i, the last part ends the text
+    private final double[] operands;   // NaN while unknown
+    private volatile long changes;     // increased after every operand change
+    private volatile Rendered rendered;
+
+    private static class Rendered {
+        final long changes;
+        final Message message;
+
+        Rendered(long changes, Message message) {
+            this.changes = changes;
+            this.message = message;
+        }
+    }
+
+    /**
+     * Creates an equation with unknown operands.
+     *
+     * @param parts the text around the operands, one more than there are operands,
+     *              e.g. {@code "", " + ", ""} for {@code a + b}
+     */
+    public LazyEquation(String... parts) {
+        this.parts = parts.clone();
+        this.operands = new double[parts.length - 1];
+        clear();
+    }
+
+    /**
+     * Sets an operand.
+     *
+     * @param index the position of the operand
+     * @param value its value, or NaN if unknown
+     */
+    public void set(int index, double value) {
+        operands[index] = value;
+        changes++;
+    }
+
+    /**
+     * Marks every operand as unknown.
+     */
+    public void clear() {
+        Arrays.fill(operands, Double.NaN);
+        changes++;
+    }
+
+    /**
+     * Returns the equation with the current operands, unknown ones shown as {@code ?}.
+     */
+    public Message get() {
+        long seen = changes;
+        Rendered last = rendered;
+        if (last != null && last.changes == seen) {
+            return last.message;
+        }
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < operands.length; i++) {
+            text.append(parts[i]);
+            double value = operands[i];
+            text.append(Double.isNaN(value) ? "?" : String.valueOf(value));
+        }
+        Message message = new Message(text.append(parts[operands.length]).toString());
+        if (changes == seen) {
+            rendered = new Rendered(seen, message);
+        }
+        return message;
+    }
+}
@@ -0,0 +1,103 @@
+package graph;
+
+import java.util.Arrays;
+import java.util.function.LongFunction;
+
+/**
+ * The LongMap class maps primitive long keys to values with open addressing and linear probing,
+ * so looking up the state of a message key neither boxes the key nor allocates an entry.
+ * The table is kept at most half full and doubles when it would not be. Keys cannot be removed,
+ * the map is cleared as a whole. It is not thread-safe.
+ *
+ * @param <V> the type of the values
+ */
+public class LongMap<V> {
+    private long[] keys;
+    private Object[] values;  // null marks a free slot
+    private int size;
+
+    public LongMap() {
+        keys = new long[16];
+        values = new Object[16];
+    }
+
+    /**
+     * Returns the value of a key, or null if it has none.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int mask = keys.length - 1;
+        for (int i = slot(key, mask); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return (V) values[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the value of a key, creating and storing it first if the key has none.
+     */
+    @SuppressWarnings("unchecked")
+    public V computeIfAbsent(long key, LongFunction<? extends V> create) {
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return (V) values[i];
+            }
+        }
+        V value = create.apply(key);
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > keys.length) {
+            grow();
+        }
+        return value;
+    }
+
+    /**
+     * Returns the number of keys in the map.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes every key.
+     */
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new Object[oldValues.length * 2];
+        int mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldValues[j] != null) {
+                int i = slot(oldKeys[j], mask);
+                while (values[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    private static int slot(long key, int mask) {
+        return hash(key) & mask;
+    }
+
+    /**
+     * Spreads the bits of a key, so that sequential keys do not fill one run of slots.
+     */
+    public static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
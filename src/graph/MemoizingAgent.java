@@ -0,0 +1,22 @@
+package graph;
+
+/**
+ * An agent that can remember the results it computed for recent input values and return them again
+ * instead of recomputing, e.g. when quantized inputs repeat.
+ */
+public interface MemoizingAgent extends Agent {
+    /**
+     * Turns the cache on with room for about the given number of input tuples, or off if it is 0.
+     */
+    void setCacheCapacity(int capacity);
+
+    /**
+     * Returns the number of results found in the cache.
+     */
+    long getCacheHits();
+
+    /**
+     * Returns the number of results that had to be computed although the cache was on.
+     */
+    long getCacheMisses();
+}
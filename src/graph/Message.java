@@ -3,13 +3,17 @@ package graph;
 import java.util.Date;
 
 public class Message {
+    /** Key of messages that belong to no particular entity, so it cannot be the key of one */
+    public static final long NO_KEY = 0;
+
     public final byte[] data;
     public final String asText;
     public final double asDouble;
     public final Date date;
+    public final long key;  // entity the value belongs to; keyed agents keep separate state per key
 
     // string constructor, used for all constructors
-    public Message(String text) {
+    public Message(String text, long key) {
         this.asText = text;
         this.data = text.getBytes();
         double parsedValue;
@@ -20,11 +24,20 @@ public class Message {
         }
         this.asDouble = parsedValue;
         this.date = new Date();
+        this.key = key;
+    }
+
+    public Message(String text) {
+        this(text, NO_KEY);
     }
 
     // double constructor
+    public Message(double value, long key) {
+        this(String.valueOf(value), key);
+    }
+
     public Message(double value) {
-        this(String.valueOf(value));
+        this(value, NO_KEY);
     }
 
     // bytes constructor
@@ -36,4 +49,4 @@ public class Message {
     public String toString() {
         return asText;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,27 @@
+package graph;
+
+/**
+ * The OverflowPolicy enum defines what a ParallelAgent does when a message arrives
+ * while its mailbox is full.
+ */
+public enum OverflowPolicy {
+    /** Block the publishing thread until there is room in the queue. */
+    BLOCK,
+    /** Discard the incoming message. */
+    DROP_NEWEST,
+    /** Discard the oldest queued message to make room for the incoming one. */
+    DROP_OLDEST,
+    /** Keep only the latest pending message per input topic. */
+    CONFLATE;
+
+    /**
+     * Parses a policy name as written in a configuration file, e.g. "drop-oldest".
+     *
+     * @param name the policy name, case insensitive, with '-' or '_' as separator
+     * @return the matching policy
+     * @throws IllegalArgumentException if the name is not a known policy
+     */
+    public static OverflowPolicy fromString(String name) {
+        return valueOf(name.trim().toUpperCase().replace('-', '_'));
+    }
+}
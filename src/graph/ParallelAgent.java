@@ -1,67 +1,255 @@
 package graph;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The ParallelAgent class implements the Agent interface and provides a way to handle messages concurrently
  * using a separate worker thread and a blocking queue.
+ * What happens when the queue is full is decided by the agent's {@link OverflowPolicy}.
+ * The worker thread is started by the first message, so agents that never receive one cost no thread.
  */
 public class ParallelAgent implements Agent {
     private final Agent agent;
     private final BlockingQueue<QueuedMessage> queue;
-    private final Thread workerThread;
+    private final OverflowPolicy policy;
+    private final Map<String, Message> pending = new ConcurrentHashMap<>(); // latest value per topic and key, CONFLATE only
+    private final AtomicInteger inFlight;
+    private final AtomicLong dropped = new AtomicLong();
+    private final int batchLimit;
+    private final List<QueuedMessage> drained;
+    private final String[] batchTopics;
+    private final Message[] batchMessages;
+    private volatile Thread workerThread;  // null until the first message arrives
     private volatile boolean running = true;
 
     /**
      * Inner class representing a message with a topic.
+     * In CONFLATE mode the message is null and the value is taken from the pending map on delivery.
      */
     private static class QueuedMessage {
         final String topic;
         final Message message;
+        final String pendingKey;  // entry of the pending map, CONFLATE only
 
         /**
          * Constructs a QueuedMessage with the specified topic and message.
          */
         QueuedMessage(String topic, Message message) {
+            this(topic, message, null);
+        }
+
+        QueuedMessage(String topic, Message message, String pendingKey) {
             this.topic = topic;
             this.message = message;
+            this.pendingKey = pendingKey;
         }
     }
 
+    /**
+     * Returns the entry of the pending map for a topic and message key, so every key is conflated separately.
+     */
+    private static String pendingKey(String topic, long key) {
+        return key == Message.NO_KEY ? topic : topic + '\0' + key;
+    }
+
     /**
      * Constructs a ParallelAgent with the specified agent and queue capacity.
      * The agent's callback method will be called in a separate worker thread.
      * The queue is used to store messages that are waiting to be processed.
      */
     public ParallelAgent(Agent agent, int capacity) {
+        this(agent, capacity, OverflowPolicy.BLOCK, 1, new AtomicInteger());
+    }
+
+    /**
+     * Constructs a ParallelAgent with the specified agent, queue capacity, overflow policy and batch limit.
+     * The worker drains up to batchLimit queued messages at a time and hands them to the agent's callbackBatch.
+     * The inFlight counter is incremented for every accepted message and decremented once it has been
+     * processed, so agents sharing one counter can tell when the whole graph is idle.
+     */
+    public ParallelAgent(Agent agent, int capacity, OverflowPolicy policy, int batchLimit, AtomicInteger inFlight) {
+        if (batchLimit < 1) {
+            throw new IllegalArgumentException("Batch limit must be at least 1");
+        }
         this.agent = agent;
         this.queue = new ArrayBlockingQueue<>(capacity);
+        this.policy = policy;
+        this.batchLimit = batchLimit;
+        this.drained = new ArrayList<>(batchLimit);
+        this.batchTopics = new String[batchLimit];
+        this.batchMessages = new Message[batchLimit];
+        this.inFlight = inFlight;
+    }
+
+    /**
+     * Starts the worker thread unless it is already running or the agent was closed.
+     */
+    private void ensureStarted() {
+        if (workerThread != null) {
+            return;
+        }
+        synchronized (this) {
+            if (workerThread == null && running) {
+                Thread worker = new Thread(this::work);
+                worker.start();
+                workerThread = worker;
+            }
+        }
+    }
 
-        this.workerThread = new Thread(() -> {
-            while (running || !queue.isEmpty()) {
-                try {
-                    QueuedMessage queuedMessage = queue.take(); // Blocking call
-                    agent.callback(queuedMessage.topic, queuedMessage.message);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
+    /**
+     * The worker loop: takes messages off the queue until the agent is closed and the queue is drained.
+     */
+    private void work() {
+        while (running || !queue.isEmpty()) {
+            try {
+                QueuedMessage queuedMessage = running ? queue.take() : queue.poll(); // Blocking call
+                if (queuedMessage != null) {
+                    drained.add(queuedMessage);
+                    queue.drainTo(drained, batchLimit - 1);
+                    deliver();
                 }
+            } catch (InterruptedException e) {
+                // close() interrupts a blocked take(), the loop condition decides whether to drain or exit
             }
-        });
+        }
+    }
 
-        this.workerThread.start();
+    /**
+     * Passes the drained messages to the wrapped agent as one batch.
+     */
+    private void deliver() {
+        int size = drained.size();
+        try {
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                QueuedMessage queuedMessage = drained.get(i);
+                Message message = queuedMessage.message != null
+                        ? queuedMessage.message
+                        : pending.remove(queuedMessage.pendingKey);
+                if (message != null) {
+                    batchTopics[count] = queuedMessage.topic;
+                    batchMessages[count] = message;
+                    count++;
+                }
+            }
+            if (count == 1) {
+                agent.callback(batchTopics[0], batchMessages[0]);
+            } else if (count > 1) {
+                agent.callbackBatch(batchTopics, batchMessages, count);
+            }
+        } finally {
+            drained.clear();
+            Arrays.fill(batchMessages, 0, size, null);
+            inFlight.addAndGet(-size);
+        }
     }
 
     /**
-     * Adds them message and topic to the queue as a QueuedMessage.
+     * Adds the message and topic to the queue as a QueuedMessage, applying the overflow policy if the queue is full.
+     * Once the agent is closed, messages are dropped instead.
      */
     @Override
     public void callback(String topic, Message message) {
+        if (!running) {
+            dropped.incrementAndGet();
+            return;
+        }
+        ensureStarted();
         try {
-            queue.put(new QueuedMessage(topic, message)); // Non-blocking callback
+            switch (policy) {
+                case BLOCK:
+                    inFlight.incrementAndGet();
+                    try {
+                        queue.put(new QueuedMessage(topic, message));
+                    } catch (InterruptedException e) {
+                        inFlight.decrementAndGet();
+                        throw e;
+                    }
+                    break;
+                case DROP_NEWEST:
+                    inFlight.incrementAndGet();
+                    if (!queue.offer(new QueuedMessage(topic, message))) {
+                        inFlight.decrementAndGet();
+                        dropped.incrementAndGet();
+                    }
+                    break;
+                case DROP_OLDEST:
+                    inFlight.incrementAndGet();
+                    QueuedMessage queuedMessage = new QueuedMessage(topic, message);
+                    while (!queue.offer(queuedMessage)) {
+                        if (queue.poll() != null) {
+                            inFlight.decrementAndGet();
+                            dropped.incrementAndGet();
+                        }
+                    }
+                    break;
+                case CONFLATE:
+                    // Only the first pending value of a topic and key takes a queue slot, later ones replace it
+                    String pendingKey = pendingKey(topic, message.key);
+                    if (pending.put(pendingKey, message) == null) {
+                        inFlight.incrementAndGet();
+                        try {
+                            queue.put(new QueuedMessage(topic, null, pendingKey));
+                        } catch (InterruptedException e) {
+                            inFlight.decrementAndGet();
+                            throw e;
+                        }
+                    } else {
+                        dropped.incrementAndGet();
+                    }
+                    break;
+            }
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
+        if (!running) {
+            dropLeftovers();
+        }
+    }
+
+    /**
+     * Drops what is still queued after the agent was closed, which its worker may no longer take, and releases
+     * it from the inFlight counter. A message is taken either by the worker or here, so none is counted twice.
+     */
+    private void dropLeftovers() {
+        QueuedMessage queuedMessage;
+        while ((queuedMessage = queue.poll()) != null) {
+            if (queuedMessage.pendingKey != null) {
+                pending.remove(queuedMessage.pendingKey);
+            }
+            inFlight.decrementAndGet();
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the overflow policy of this agent's queue.
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return policy;
+    }
+
+    /**
+     * Returns the maximum number of messages handed to the agent in one batch.
+     */
+    public int getBatchLimit() {
+        return batchLimit;
+    }
+
+    /**
+     * Returns the number of messages that were dropped or replaced by a newer value.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
     }
 
     /**
@@ -94,16 +282,24 @@ public class ParallelAgent implements Agent {
     }
 
     /**
-     * Stops the worker thread and waits for it to exit cleanly.
+     * Stops the worker thread, if it was started, and waits for it to exit cleanly.
+     * Messages arriving afterwards are dropped.
      */
     @Override
     public void close() {
-        running = false;
-        workerThread.interrupt(); // Ensure take() unblocks
-        try {
-            workerThread.join(); // Wait for the thread to exit cleanly
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+        Thread worker;
+        synchronized (this) {
+            running = false;
+            worker = workerThread;
+        }
+        if (worker != null) {
+            worker.interrupt(); // Ensure take() unblocks
+            try {
+                worker.join(); // Wait for the thread to exit cleanly
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
         }
+        dropLeftovers();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,124 @@
+package graph;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The PartitionedAgent class runs several instances of one agent, each behind its own queue and worker thread,
+ * and routes every message to an instance by the hash of its key. All messages of a key reach the same
+ * instance in the order they were published, so the instance can keep the key's state unsynchronized,
+ * while different keys are computed in parallel. The instances publish their results to the same topics.
+ * Messages without a key all go to the first instance.
+ *
+ * A stateless agent, see {@link Agent#isStateless()}, can instead be fed round-robin, which spreads even
+ * unkeyed messages over all instances. Its results may then be published in a different order than
+ * the messages they were computed from.
+ */
+public class PartitionedAgent implements Agent {
+    private final Agent[] agents;
+    private final ParallelAgent[] lanes;
+    private final AtomicLong next;  // counter of round-robin routing, null when routing by key
+
+    /**
+     * Creates a PartitionedAgent over the specified instances, with a queue for each.
+     *
+     * @param agents the instances of the agent; the first one represents the agent in the graph
+     * @param capacity the capacity of each queue
+     * @param policy what a queue does when it is full
+     * @param batchLimit the most queued messages handed to an instance at once
+     * @param inFlight the counter of queued or in-progress messages, shared by the whole graph
+     * @param roundRobin true to hand the messages to the instances in turn instead of by key
+     * @throws IllegalArgumentException if round-robin routing is asked for an agent that is not stateless
+     */
+    public PartitionedAgent(Agent[] agents, int capacity, OverflowPolicy policy, int batchLimit, AtomicInteger inFlight,
+                            boolean roundRobin) {
+        if (roundRobin && !agents[0].isStateless()) {
+            throw new IllegalArgumentException(agents[0].getName() + " keeps state and cannot be replicated round-robin");
+        }
+        this.agents = agents.clone();
+        this.next = roundRobin ? new AtomicLong() : null;
+        this.lanes = new ParallelAgent[agents.length];
+        for (int i = 0; i < agents.length; i++) {
+            lanes[i] = new ParallelAgent(agents[i], capacity, policy, batchLimit, inFlight);
+        }
+    }
+
+    /**
+     * Returns the instance a key is routed to. The high bits of the key's hash are used, so the keys of one
+     * instance still spread over the low bits its {@link LongMap} uses.
+     *
+     * @param key the key of a message
+     * @param count the number of instances
+     */
+    public static int partition(long key, int count) {
+        if (key == Message.NO_KEY) {
+            return 0;
+        }
+        return (int) (((LongMap.hash(key) & 0xFFFFFFFFL) * count) >>> 32);
+    }
+
+    @Override
+    public void callback(String topic, Message message) {
+        int lane = next != null
+                ? (int) Long.remainderUnsigned(next.getAndIncrement(), lanes.length)
+                : partition(message.key, lanes.length);
+        lanes[lane].callback(topic, message);
+    }
+
+    /**
+     * Returns true if messages are handed to the instances in turn, false if they are routed by key.
+     */
+    public boolean isRoundRobin() {
+        return next != null;
+    }
+
+    /**
+     * Returns the number of instances.
+     */
+    public int getPartitionCount() {
+        return lanes.length;
+    }
+
+    /**
+     * Returns the number of messages dropped by all queues.
+     */
+    public long getDroppedCount() {
+        long dropped = 0;
+        for (ParallelAgent lane : lanes) {
+            dropped += lane.getDroppedCount();
+        }
+        return dropped;
+    }
+
+    @Override
+    public String getName() {
+        return agents[0].getName();
+    }
+
+    @Override
+    public String getUUID() {
+        return agents[0].getUUID();
+    }
+
+    @Override
+    public void reset() {
+        for (ParallelAgent lane : lanes) {
+            lane.reset();
+        }
+    }
+
+    @Override
+    public Message getEquation() {
+        return agents[0].getEquation();
+    }
+
+    /**
+     * Stops every worker thread after its queue is drained.
+     */
+    @Override
+    public void close() {
+        for (ParallelAgent lane : lanes) {
+            lane.close();
+        }
+    }
+}
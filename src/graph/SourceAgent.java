@@ -0,0 +1,12 @@
+package graph;
+
+/**
+ * An agent that produces messages by itself instead of reacting to its input topics, e.g. a generator of
+ * test load. It stays idle until it is started, after the whole graph is wired, and stops when closed.
+ */
+public interface SourceAgent extends Agent {
+    /**
+     * Starts publishing to the output topics.
+     */
+    void start();
+}
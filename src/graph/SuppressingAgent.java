@@ -0,0 +1,18 @@
+package graph;
+
+/**
+ * An agent that can hold back a result that differs from the last one it published for the same key by at
+ * most an epsilon, so the agents downstream do not recompute for changes too small to matter.
+ */
+public interface SuppressingAgent extends Agent {
+    /**
+     * Holds back results within epsilon of the previous one; 0 holds back equal results only, a negative
+     * epsilon turns suppression off.
+     */
+    void setChangeSuppression(double epsilon);
+
+    /**
+     * Returns the number of results held back.
+     */
+    long getSuppressedCount();
+}
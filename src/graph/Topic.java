@@ -1,40 +1,218 @@
 package graph;
 
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 public class Topic {
     public final String name;
-    private final Set<Agent> subs = new HashSet<>();
-    private final Set<Agent> pubs = new HashSet<>();
-    private Message lastMessage;
+    public final int id;  // dense index assigned by the TopicManager
+    private final Set<Agent> subs = new LinkedHashSet<>();
+    private final Set<Agent> pubs = new LinkedHashSet<>();
+    private volatile Agent[] subscriberArray = new Agent[0];  // snapshot of subs iterated by publish, null when stale
+    private volatile Message lastMessage;
+    private volatile CompiledExecutor executor;  // set while the topic is evaluated by a compiled plan
+    private volatile FanOut fanOut;  // delivers to many subscribers in parallel, null when off
+    private final LongAdder fanOuts = new LongAdder();
+    private final LongAdder fanOutNanos = new LongAdder();
+    private final AtomicLong maxFanOutNanos = new AtomicLong();
+    private final AgentRegistry agents;  // registry of the owning TopicManager, kept current by (un)subscribing
 
-    Topic(String name) {
+    Topic(String name, int id, AgentRegistry agents) {
         this.name = name;
+        this.id = id;
+        this.agents = agents;
         this.lastMessage = null;
     }
 
-    public void subscribe(Agent a) {
-        subs.add(a);
+    public synchronized void subscribe(Agent a) {
+        if (subs.add(a)) {
+            subscriberArray = null;  // rebuilt by the next publish, so subscribing n agents stays linear
+            agents.connect(a);
+        }
+    }
+
+    /**
+     * Replaces a subscriber in place, so that a publish reaches either the old or the new agent, never both or none.
+     * If the old agent is not subscribed, the replacement is simply added.
+     */
+    public synchronized void replaceSubscriber(Agent old, Agent replacement) {
+        List<Agent> updated = new ArrayList<>(subs.size() + 1);
+        boolean found = false;
+        for (Agent a : subs) {
+            if (a == old) {
+                a = replacement;
+                found = true;
+            }
+            updated.add(a);
+        }
+        if (!found) {
+            updated.add(replacement);
+        }
+        agents.connect(replacement);
+        if (found) {
+            agents.disconnect(old);
+        }
+        subs.clear();
+        subs.addAll(updated);
+        subscriberArray = null;
+    }
+
+    /**
+     * Replaces every subscriber that is a key of the map by its value, in place and in a single step.
+     */
+    public synchronized void replaceSubscribers(Map<Agent, ? extends Agent> replacements) {
+        List<Agent> updated = new ArrayList<>(subs.size());
+        boolean changed = false;
+        for (Agent a : subs) {
+            Agent replacement = replacements.get(a);
+            if (replacement != null) {
+                agents.connect(replacement);
+                agents.disconnect(a);
+                a = replacement;
+                changed = true;
+            }
+            updated.add(a);
+        }
+        if (changed) {
+            subs.clear();
+            subs.addAll(updated);
+            subscriberArray = null;
+        }
     }
 
-    public void unsubscribe(Agent a) {
-        subs.remove(a);
+    /**
+     * Unsubscribes and subscribes several agents in a single step, so a publish reaches either the previous
+     * subscribers or the new ones, never a mix of both.
+     */
+    public synchronized void changeSubscribers(Collection<? extends Agent> removed, Collection<? extends Agent> added) {
+        for (Agent a : removed) {
+            if (subs.remove(a)) {
+                agents.disconnect(a);
+            }
+        }
+        for (Agent a : added) {
+            if (subs.add(a)) {
+                agents.connect(a);
+            }
+        }
+        subscriberArray = null;
+    }
+
+    public synchronized void unsubscribe(Agent a) {
+        if (subs.remove(a)) {
+            subscriberArray = null;
+            agents.disconnect(a);
+        }
+    }
+
+    /**
+     * Sorts the subscribers and publishers, e.g. back into configuration order after agents subscribed concurrently.
+     * The sort is stable, so agents the comparator considers equal keep their relative order.
+     */
+    public synchronized void sortAgents(Comparator<? super Agent> order) {
+        sort(subs, order);
+        sort(pubs, order);
+        subscriberArray = null;
+    }
+
+    private static void sort(Set<Agent> agents, Comparator<? super Agent> order) {
+        if (agents.size() < 2) {
+            return;
+        }
+        List<Agent> sorted = new ArrayList<>(agents);
+        sorted.sort(order);
+        agents.clear();
+        agents.addAll(sorted);
+    }
+
+    /**
+     * Returns the current subscriber snapshot, rebuilding it if the subscribers changed since it was taken.
+     */
+    private Agent[] subscribers() {
+        Agent[] snapshot = subscriberArray;
+        if (snapshot != null) {
+            return snapshot;
+        }
+        synchronized (this) {
+            if (subscriberArray == null) {
+                subscriberArray = subs.toArray(new Agent[0]);
+            }
+            return subscriberArray;
+        }
     }
 
     public void publish(Message m) {
+        CompiledExecutor compiled = executor;
+        if (compiled != null) {
+            compiled.publish(id, m);  // The plan evaluates the subscribers in topological order
+            return;
+        }
         this.lastMessage = m;  // Store the message
-        for (Agent a : subs) {
+        Agent[] subscribers = subscribers();
+        FanOut parallel = fanOut;
+        if (parallel != null && subscribers.length >= parallel.getThreshold()) {
+            parallel.dispatch(this, subscribers, m);
+            return;
+        }
+        for (Agent a : subscribers) {
             a.callback(name, m);
         }
     }
 
-    public void addPublisher(Agent a) {
-        pubs.add(a);
+    public synchronized void addPublisher(Agent a) {
+        if (pubs.add(a)) {
+            agents.connect(a);
+        }
+    }
+
+    public synchronized void removePublisher(Agent a) {
+        if (pubs.remove(a)) {
+            agents.disconnect(a);
+        }
+    }
+
+    /**
+     * Makes publish hand messages to the FanOut while the topic has at least its threshold of subscribers.
+     * Null delivers every message on the publishing thread.
+     */
+    public void setFanOut(FanOut fanOut) {
+        this.fanOut = fanOut;
     }
 
-    public void removePublisher(Agent a) {
-        pubs.remove(a);
+    /**
+     * Returns the number of messages delivered through the FanOut.
+     */
+    public long getFanOutCount() {
+        return fanOuts.sum();
+    }
+
+    /**
+     * Returns the mean time from publishing a message through the FanOut until every subscriber was called,
+     * in nanoseconds, or 0 if there was none.
+     */
+    public long getMeanFanOutNanos() {
+        long count = fanOuts.sum();
+        return count == 0 ? 0 : fanOutNanos.sum() / count;
+    }
+
+    /**
+     * Returns the longest time a message took to reach every subscriber through the FanOut, in nanoseconds.
+     */
+    public long getMaxFanOutNanos() {
+        return maxFanOutNanos.get();
+    }
+
+    void recordFanOut(long nanos) {
+        fanOuts.increment();
+        fanOutNanos.add(nanos);
+        maxFanOutNanos.accumulateAndGet(nanos, Math::max);
     }
 
     // Getters
@@ -47,6 +225,20 @@ public class Topic {
     }
 
     public Message getLastMessage() {
-        return lastMessage;
+        CompiledExecutor compiled = executor;
+        return compiled != null ? compiled.getMessage(id) : lastMessage;
+    }
+
+    CompiledExecutor executor() {
+        return executor;
+    }
+
+    void bind(CompiledExecutor executor) {
+        this.executor = executor;
+    }
+
+    void unbind(Message last) {
+        this.lastMessage = last;
+        this.executor = null;
     }
 }
\ No newline at end of file
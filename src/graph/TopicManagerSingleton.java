@@ -1,7 +1,12 @@
 package graph;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class TopicManagerSingleton {
     private static final TopicManager instance = new TopicManager();
@@ -12,17 +17,136 @@ public class TopicManagerSingleton {
 
     public static class TopicManager {
         private final ConcurrentHashMap<String, Topic> topics = new ConcurrentHashMap<>();
+        private volatile Topic[] topicsById = new Topic[16];  // topic ids are dense, in creation order
+        private volatile int topicCount;
+        private final AtomicLong epoch = new AtomicLong();
+        private final AgentRegistry agents = new AgentRegistry();
 
+        /**
+         * Returns the topic with the given name, creating it with the next free id if needed.
+         * Agents should resolve their topics once and keep the reference rather than look them up per message.
+         */
         public Topic getTopic(String name) {
-            return topics.computeIfAbsent(name, Topic::new);
+            Topic topic = topics.get(name);
+            return topic != null ? topic : register(name);
         }
 
+        /**
+         * Returns the topic with the given name, or null if there is none. Unlike getTopic, never creates one.
+         */
+        public Topic findTopic(String name) {
+            return topics.get(name);
+        }
+
+        private synchronized Topic register(String name) {
+            Topic topic = topics.get(name);
+            if (topic == null) {
+                int id = topicCount;
+                Topic[] byId = topicsById;
+                if (id == byId.length) {
+                    byId = Arrays.copyOf(byId, byId.length * 2);
+                }
+                topic = new Topic(name, id, agents);
+                byId[id] = topic;
+                topicsById = byId;
+                topicCount = id + 1;
+                topics.put(name, topic);
+            }
+            return topic;
+        }
+
+        /**
+         * Returns the topic with the given id.
+         */
+        public Topic getTopic(int id) {
+            if (id < 0 || id >= topicCount) {
+                throw new IndexOutOfBoundsException("No topic with id " + id);
+            }
+            return topicsById[id];
+        }
+
+        /**
+         * Returns the number of topics, which is also one more than the largest topic id.
+         */
+        public int getTopicCount() {
+            return topicCount;
+        }
+
+        /**
+         * Returns the topics ordered by id.
+         */
         public Collection<Topic> getTopics() {
-            return topics.values();
+            int count = topicCount;
+            return Arrays.asList(Arrays.copyOf(topicsById, count));
+        }
+
+        /**
+         * Publishes several topic values as one wave and returns the wave's epoch.
+         *
+         * The topics must be evaluated by one compiled executor, which receives all their values before any
+         * agent runs, so each affected agent is evaluated once and never sees a mix of old and new inputs.
+         * Queued agents would receive the values as separate messages, so a topic read by one is rejected.
+         * Topics without subscribers are published after the wave.
+         *
+         * @throws IllegalArgumentException if a topic does not exist
+         * @throws IllegalStateException if a topic with subscribers is not evaluated by the compiled executor
+         */
+        public long publish(Map<String, Message> values) {
+            List<Topic> compiledTopics = new ArrayList<>();
+            List<Message> compiledValues = new ArrayList<>();
+            CompiledExecutor executor = null;
+            List<Topic> plainTopics = new ArrayList<>();
+            List<Message> plainValues = new ArrayList<>();
+
+            for (Map.Entry<String, Message> entry : values.entrySet()) {
+                Topic topic = findTopic(entry.getKey());
+                if (topic == null) {
+                    throw new IllegalArgumentException("Topic not found: " + entry.getKey());
+                }
+                CompiledExecutor topicExecutor = topic.executor();
+                if (topicExecutor != null && (executor == null || executor == topicExecutor)) {
+                    executor = topicExecutor;
+                    compiledTopics.add(topic);
+                    compiledValues.add(entry.getValue());
+                } else if (topicExecutor == null && topic.getSubscribers().isEmpty()) {
+                    plainTopics.add(topic);
+                    plainValues.add(entry.getValue());
+                } else {
+                    throw new IllegalStateException("Topic " + topic.name + " is read by queued agents, publishing "
+                            + "several topics as one wave requires @executor=compiled");
+                }
+            }
+
+            long waveEpoch = executor != null ? executor.publishAll(compiledTopics, compiledValues) : nextEpoch();
+            for (int i = 0; i < plainTopics.size(); i++) {
+                plainTopics.get(i).publish(plainValues.get(i));
+            }
+            return waveEpoch;
+        }
+
+        /**
+         * Returns the epoch of the most recent wave.
+         */
+        public long getEpoch() {
+            return epoch.get();
+        }
+
+        long nextEpoch() {
+            return epoch.incrementAndGet();
+        }
+
+        /**
+         * Returns the registry of the agents connected to this manager's topics.
+         */
+        public AgentRegistry getAgents() {
+            return agents;
         }
 
-        public void clear() {
+        public synchronized void clear() {
+            agents.clear();
             topics.clear();
+            topicsById = new Topic[16];
+            topicCount = 0;
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,62 @@
+package servlets;
+
+import server.RequestParser.RequestInfo;
+import server.Servlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The ActionRouter servlet passes requests to /g/{graph}/{action} on to the servlet registered for the action,
+ * e.g. /g/tenant1/publish to the TopicDisplayer. The server matches URIs by prefix only, so the requests of
+ * all named graphs arrive at one servlet.
+ */
+public class ActionRouter implements Servlet {
+    private final Map<String, Servlet> actions = new HashMap<>();
+
+    /**
+     * Registers the servlet for an action.
+     *
+     * @param action The last URI segment, e.g. publish
+     * @param servlet The servlet that handles it
+     * @return this router
+     */
+    public ActionRouter add(String action, Servlet servlet) {
+        actions.put(action, servlet);
+        return this;
+    }
+
+    /**
+     * Hands the request to the servlet of its action.
+     *
+     * @param request The HTTP request information
+     * @param out The output stream to write the response to
+     * @throws IOException If there's an error writing the response
+     */
+    @Override
+    public void handle(RequestInfo request, OutputStream out) throws IOException {
+        String[] segments = request.getUriSegments();
+        Servlet servlet = segments.length > 0 ? actions.get(segments[segments.length - 1]) : null;
+        if (servlet == null) {
+            PrintWriter writer = new PrintWriter(out, true);
+            writer.println("HTTP/1.1 404 Not Found");
+            writer.println("Content-Type: text/plain; charset=UTF-8");
+            writer.println();
+            writer.println("Unknown action: " + request.getUri());
+            writer.flush();
+            return;
+        }
+        servlet.handle(request, out);
+    }
+
+    /**
+     * Closes any resources held by the servlet.
+     * The servlets of the actions are registered with the server themselves and closed by it.
+     */
+    @Override
+    public void close() throws IOException {
+    }
+}
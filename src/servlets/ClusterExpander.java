@@ -0,0 +1,148 @@
+package servlets;
+
+import configs.GraphInstance;
+import configs.GraphLayout;
+import configs.GraphRegistry;
+import configs.GraphView;
+import server.RequestParser.RequestInfo;
+import server.Servlet;
+import utils.Logger;
+import views.HtmlGraphWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The ClusterExpander servlet serves the members of a cluster of the graph view, one page at a time,
+ * so the graph page can expand a cluster without loading the whole graph.
+ *
+ * A GET request to /cluster?id=C12&offset=0&limit=200 (or /g/{graph}/cluster) answers with JSON:
+ * the page of member nodes as vis.js nodes, the edges of those nodes, and the total number of members.
+ * Each end of an edge names both its node and the cluster of that node, so the page can attach the edge
+ * to the cluster while the node itself is not shown.
+ */
+public class ClusterExpander implements Servlet {
+    /** Number of members sent when the request does not ask for a number */
+    private static final int DEFAULT_LIMIT = 200;
+    /** Largest number of members sent at once */
+    private static final int MAX_LIMIT = 1000;
+    private final GraphRegistry graphs;
+
+    /**
+     * Creates a ClusterExpander for the instances of the given registry.
+     *
+     * @param graphs The registry of graph instances
+     */
+    public ClusterExpander(GraphRegistry graphs) {
+        this.graphs = graphs;
+    }
+
+    /**
+     * Sends one page of the members of the requested cluster.
+     *
+     * @param request The HTTP request information
+     * @param out The output stream to write the response to
+     * @throws IOException If there's an error writing the response
+     */
+    @Override
+    public void handle(RequestInfo request, OutputStream out) throws IOException {
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), false);
+        GraphInstance instance = graphs.get(GraphRegistry.graphName(request.getUriSegments()));
+        if (instance == null) {
+            sendError(writer, "404 Not Found", "Graph not found: " + GraphRegistry.graphName(request.getUriSegments()));
+            return;
+        }
+        String id = request.getParameters().get("id");
+        GraphView view = instance.getView();
+        GraphLayout layout = view.getLayout();
+        GraphLayout.Cluster cluster = id != null ? layout.getCluster(id) : null;
+        if (cluster == null) {
+            sendError(writer, "404 Not Found", "Cluster not found: " + id);
+            return;
+        }
+        int offset;
+        int limit;
+        try {
+            offset = parseInt(request.getParameters().get("offset"), 0);
+            limit = Math.min(parseInt(request.getParameters().get("limit"), DEFAULT_LIMIT), MAX_LIMIT);
+        } catch (NumberFormatException e) {
+            sendError(writer, "400 Bad Request", "Invalid offset or limit");
+            return;
+        }
+        if (offset < 0 || limit <= 0) {
+            sendError(writer, "400 Bad Request", "Invalid offset or limit");
+            return;
+        }
+
+        int[] members = cluster.getMembers();
+        int end = Math.min(members.length, offset + limit);
+        Logger.info("ClusterExpander: Sending members " + offset + " to " + end + " of cluster " + id);
+
+        writer.println("HTTP/1.1 200 OK");
+        writer.println("Content-Type: application/json; charset=UTF-8");
+        writer.println();
+        writer.write("{\"id\":");
+        HtmlGraphWriter.writeJson(writer, cluster.getId());
+        writer.write(",\"offset\":" + offset + ",\"total\":" + members.length + ",\"nodes\":[");
+        for (int k = offset; k < end; k++) {
+            if (k > offset) {
+                writer.write(',');
+            }
+            HtmlGraphWriter.writeNode(writer, layout, members[k], view.getText(members[k]));
+        }
+        writer.write("],\"edges\":[");
+        boolean first = true;
+        for (int k = offset; k < end; k++) {
+            int node = members[k];
+            for (int target : layout.getSuccessors(node)) {
+                first = writeEdge(writer, layout, node, target, first);
+            }
+            for (int source : layout.getPredecessors(node)) {
+                first = writeEdge(writer, layout, source, node, first);
+            }
+        }
+        writer.write("]}");
+        writer.flush();
+    }
+
+    private static boolean writeEdge(Writer out, GraphLayout layout, int from, int to, boolean first)
+            throws IOException {
+        if (!first) {
+            out.write(',');
+        }
+        out.write("{\"from\":");
+        HtmlGraphWriter.writeJson(out, layout.getName(from));
+        out.write(",\"fromCluster\":");
+        HtmlGraphWriter.writeJson(out, layout.clusterOf(from).getId());
+        out.write(",\"to\":");
+        HtmlGraphWriter.writeJson(out, layout.getName(to));
+        out.write(",\"toCluster\":");
+        HtmlGraphWriter.writeJson(out, layout.clusterOf(to).getId());
+        out.write('}');
+        return false;
+    }
+
+    private static int parseInt(String value, int defaultValue) {
+        return value == null || value.isEmpty() ? defaultValue : Integer.parseInt(value);
+    }
+
+    private void sendError(PrintWriter writer, String status, String message) {
+        writer.println("HTTP/1.1 " + status);
+        writer.println("Content-Type: text/plain; charset=UTF-8");
+        writer.println();
+        writer.println(message);
+        writer.flush();
+    }
+
+    /**
+     * Closes any resources held by the servlet.
+     * Currently, this servlet doesn't hold any resources that need closing.
+     */
+    @Override
+    public void close() throws IOException {
+    }
+}
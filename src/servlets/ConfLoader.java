@@ -3,15 +3,15 @@ package servlets;
 
 import server.Servlet;
 import server.RequestParser;
-import configs.GenericConfig;
-import configs.Graph;
+import configs.ConfigParser;
+import configs.GraphInstance;
+import configs.GraphRegistry;
 import views.HtmlGraphWriter;
+import views.Template;
 import utils.Logger;
-import graph.TopicManagerSingleton;
 
 import java.io.*;
-import java.nio.file.*;
-import java.util.UUID;
+import java.nio.charset.StandardCharsets;
 
 /**
  * The ConfLoader servlet handles the uploading and processing of configuration files
@@ -19,28 +19,47 @@ import java.util.UUID;
  * files and initializes the computation graph based on the configuration.
  * 
  * Features:
- * - Processes multipart form data to extract configuration file content
- * - Creates a temporary file to store the configuration
+ * - Locates the configuration file in the multipart form data
+ * - Parses and validates the configuration directly from the request body, without temporary files
  * - Initializes the computation graph based on the configuration
  * - Generates and returns an HTML visualization of the graph
- * - Manages cleanup of temporary files
- * - Handles error cases with appropriate error responses
+ * - Handles error cases with appropriate error responses, including the line of an invalid configuration:
+ *   400 for an invalid configuration or graph name, 500 for other failures
+ *
+ * Uploads to /g/{graph}/upload load the configuration into the named graph instance,
+ * other uploads load it into the default instance. Other instances keep running.
+ * With ?mode=incremental only the agents that changed are replaced, the others keep their threads and state.
  */
 public class ConfLoader implements Servlet {
-    /** Directory for storing temporary configuration files */
-    private static final String TEMP_DIR = "temp_configs";
-    private static GenericConfig activeConfig = null;
+    /** Value of the mode parameter that keeps unchanged agents running */
+    private static final String INCREMENTAL_MODE = "incremental";
+    /** How often an upload is retried when its graph instance is destroyed while loading */
+    private static final int MAX_LOAD_ATTEMPTS = 3;
+    /** Part headers that mark the uploaded configuration file */
+    private static final String[] FILE_CONTENT_TYPES = {"Content-Type: text/plain", "Content-Type: application/octet-stream"};
+    private static final byte[] CRLF_CRLF = {'\r', '\n', '\r', '\n'};
+    private static final byte[] LF_LF = {'\n', '\n'};
+    private static final byte[] LF_BOUNDARY = {'\n', '-', '-'};
+    private final GraphRegistry graphs;
+
+    /**
+     * Creates a ConfLoader that loads configurations into the instances of the given registry.
+     *
+     * @param graphs The registry of graph instances
+     */
+    public ConfLoader(GraphRegistry graphs) {
+        this.graphs = graphs;
+    }
 
     /**
      * Handles POST requests containing configuration files.
      * 
      * The method performs the following steps:
-     * 1. Clears any existing topic manager state
-     * 2. Processes the uploaded configuration file
-     * 3. Creates a temporary file with the configuration
+     * 1. Resolves the graph instance named by the URI
+     * 2. Locates the uploaded configuration file in the request body
+     * 3. Parses and validates the configuration while reading it
      * 4. Initializes the computation graph
-     * 5. Generates an HTML visualization of the graph
-     * 6. Cleans up temporary files
+     * 5. Streams an HTML visualization of the graph into the response
      * 
      * @param req The HTTP request information containing the configuration file
      * @param out The output stream to write the response to
@@ -52,13 +71,9 @@ public class ConfLoader implements Servlet {
         
         try {
             Logger.info("ConfLoader: Received request");
-            
-            // Clear previous state
-            TopicManagerSingleton.get().clear();
-            Logger.info("ConfLoader: Cleared previous topic manager state");
-            
-            // Ensure temp directory exists
-            Files.createDirectories(Paths.get(TEMP_DIR));
+
+            String graphName = GraphRegistry.graphName(req.getUriSegments());
+            GraphRegistry.checkName(graphName);  // Reject an invalid name before reading the body
 
             // Get the request body
             byte[] body = req.getContent();
@@ -67,106 +82,65 @@ public class ConfLoader implements Servlet {
             }
             Logger.info("ConfLoader: Received file content of size: " + body.length);
 
-            // Process multipart form data
-            BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(body)));
-            
-            // Read until we find the file content
-            String line;
-            StringBuilder fileContent = new StringBuilder();
-            boolean isFileContent = false;
-            boolean foundFileContent = false;
-            while ((line = reader.readLine()) != null) {
-                if (line.contains("Content-Type: text/plain") || line.contains("Content-Type: application/octet-stream")) {
-                    reader.readLine(); // Skip empty line
-                    isFileContent = true;
-                    foundFileContent = true;
-                    Logger.info("ConfLoader: Found file content marker");
-                    continue;
-                }
-                if (isFileContent) {
-                    if (line.startsWith("--")) {
-                        break;
-                    }
-                    // Add "configs." prefix to each agent class name line
-                    if (line.endsWith("Agent")) {
-                        fileContent.append("agents.").append(line).append("\n");
-                    } else {
-                        fileContent.append(line).append("\n");
-                    }
-                }
-            }
-
-            if (!foundFileContent) {
-                throw new IOException("Could not find file content in request");
+            // Parse the file part of the multipart form data in place
+            ConfigParser.ConfigInfo configInfo;
+            try (BufferedReader reader = openFilePart(body)) {
+                configInfo = ConfigParser.parseConfig(reader);
             }
-
-            String content = fileContent.toString().trim();
-            if (content.isEmpty()) {
+            if (configInfo.getAgents().isEmpty()) {
                 throw new IOException("File content is empty");
             }
-            Logger.info("ConfLoader: Parsed file content:\n" + content);
-
-            // Generate unique temp file name
-            String tempFileName = TEMP_DIR + "/" + UUID.randomUUID().toString() + ".conf";
-            
-            // Write content to temp file
-            Files.write(Paths.get(tempFileName), content.getBytes());
-            Logger.info("ConfLoader: Wrote content to temp file: " + tempFileName);
-
-            // Close previous config if it exists
-            if (activeConfig != null) {
-                Logger.info("ConfLoader: Closing previous config");
-                activeConfig.close();
-            }
-
-            // Create and process new config
-            GenericConfig config = new GenericConfig();
-            config.setConfFile(tempFileName);
-            config.create();
-            activeConfig = config; // Update static reference
-            Logger.info("ConfLoader: Created and processed config");
-
-            // Create graph structure
-            Graph graph = new Graph();
-            graph.createFromTopics();
-            Logger.info("ConfLoader: Created graph structure");
-
-            // Check for cycles
-            if (graph.hasCycles()) {
-                Logger.warn("ConfLoader: Graph contains cycles");
+            Logger.info("ConfLoader: Parsed " + configInfo.getAgents().size() + " agents");
+
+            // Replace the instance's config, or apply only the differences with ?mode=incremental
+            boolean incremental = INCREMENTAL_MODE.equals(req.getParameters().get("mode"));
+            GraphInstance instance;
+            for (int attempt = 1; ; attempt++) {
+                instance = graphs.getOrCreate(graphName);
+                try {
+                    // Both report the graph's cycles, a reload only those its changed edges close
+                    if (incremental) {
+                        instance.reload(configInfo);
+                    } else {
+                        instance.load(configInfo);
+                    }
+                    break;
+                } catch (IllegalStateException e) {
+                    // The instance was destroyed meanwhile, load into the one that replaces it
+                    if (!instance.isClosed() || attempt == MAX_LOAD_ATTEMPTS) {
+                        throw e;
+                    }
+                }
             }
+            Logger.info("ConfLoader: " + (incremental ? "Reloaded" : "Loaded") + " config into graph "
+                    + instance.getName());
 
-            // Generate graph HTML
-            String graphHtml;
+            // Load the graph page template before anything is sent, so a missing template is still an error
+            Template template;
             try {
-                graphHtml = HtmlGraphWriter.getGraphHtml(graph);
-                Logger.info("ConfLoader: Generated graph HTML");
+                template = HtmlGraphWriter.loadTemplate();
             } catch (IOException e) {
                 Logger.error("Error generating graph HTML: " + e.getMessage());
                 throw new IOException("Failed to generate graph visualization", e);
             }
 
-            // Add script to reset topic table
-            StringBuilder html = new StringBuilder();
-            html.append(graphHtml);
-
-            // Send response
+            // Send response, rendering the graph straight into it
             writer.println("HTTP/1.1 200 OK");
             writer.println("Content-Type: text/html; charset=UTF-8");
             writer.println();
-            writer.println(html.toString());
+            HtmlGraphWriter.writeGraphHtml(template, instance.getView(), writer);
+            writer.println();
             writer.flush();
             Logger.info("ConfLoader: Sent response");
 
-            // Clean up temp file
-            Files.deleteIfExists(Paths.get(tempFileName));
-
         } catch (Exception e) {
             Logger.error("Error in ConfLoader: " + e.getMessage());
             e.printStackTrace();
             String errorHtml = "<html><body><h2>Error parsing configuration</h2><pre>" +
-                    e.getMessage() + "</pre></body></html>";
-            writer.println("HTTP/1.1 500 Internal Server Error");
+                    escapeHtml(String.valueOf(e.getMessage())) + "</pre></body></html>";
+            // An invalid configuration or graph name is the client's error, anything else is ours
+            writer.println(e instanceof IllegalArgumentException
+                    ? "HTTP/1.1 400 Bad Request" : "HTTP/1.1 500 Internal Server Error");
             writer.println("Content-Type: text/html; charset=UTF-8");
             writer.println();
             writer.println(errorHtml);
@@ -175,33 +149,77 @@ public class ConfLoader implements Servlet {
     }
 
     /**
-     * Cleans up resources when the servlet is closed.
-     * This includes removing all temporary configuration files and the temporary directory.
-     * 
-     * @throws IOException If there's an error cleaning up the temporary files
+     * Returns a reader over the content of the uploaded file in a multipart request body.
+     * The reader reads the body in place, up to the boundary that closes the file part.
+     *
+     * @throws IOException If the body contains no file part
      */
-    @Override
-    public void close() throws IOException {
-        // Close any active config
-        if (activeConfig != null) {
-            Logger.info("ConfLoader: Closing active config during shutdown");
-            activeConfig.close();
-            activeConfig = null;
+    private static BufferedReader openFilePart(byte[] body) throws IOException {
+        int start = -1;
+        for (String marker : FILE_CONTENT_TYPES) {
+            int found = indexOf(body, marker.getBytes(StandardCharsets.US_ASCII), 0);
+            if (found >= 0 && (start < 0 || found < start)) {
+                start = found;
+            }
+        }
+        if (start < 0) {
+            throw new IOException("Could not find file content in request");
         }
 
-        // Clean up temp directory
-        try {
-            Files.walk(Paths.get(TEMP_DIR))
-                    .sorted((a, b) -> b.compareTo(a))
-                    .forEach(path -> {
-                        try {
-                            Files.deleteIfExists(path);
-                        } catch (IOException e) {
-                            Logger.error("Error deleting temp file: " + e.getMessage());
-                        }
-                    });
-        } catch (IOException e) {
-            Logger.error("Error cleaning up temp directory: " + e.getMessage());
+        // The content starts after the blank line that ends the part headers
+        int headersEnd = indexOf(body, CRLF_CRLF, start);
+        if (headersEnd >= 0) {
+            start = headersEnd + CRLF_CRLF.length;
+        } else {
+            headersEnd = indexOf(body, LF_LF, start);
+            if (headersEnd < 0) {
+                throw new IOException("Could not find file content in request");
+            }
+            start = headersEnd + LF_LF.length;
         }
+        Logger.info("ConfLoader: Found file content marker");
+
+        // The content ends at the next line starting with the boundary prefix
+        int end = indexOf(body, LF_BOUNDARY, start - 1);
+        end = end < 0 ? body.length : end;
+        return new BufferedReader(new InputStreamReader(new ByteArrayInputStream(body, start, Math.max(0, end - start)),
+                StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Escapes special HTML characters in a string to prevent XSS.
+     *
+     * @param input The string to escape
+     * @return The escaped string safe for HTML output
+     */
+    private static String escapeHtml(String input) {
+        return input.replace("&", "&amp;")
+                   .replace("<", "&lt;")
+                   .replace(">", "&gt;")
+                   .replace("\"", "&quot;")
+                   .replace("'", "&#39;");
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern, int from) {
+        outer:
+        for (int i = Math.max(0, from); i <= data.length - pattern.length; i++) {
+            for (int k = 0; k < pattern.length; k++) {
+                if (data[i + k] != pattern[k]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Cleans up resources when the servlet is closed.
+     * This includes closing all graph instances.
+     */
+    @Override
+    public void close() {
+        Logger.info("ConfLoader: Closing graph instances during shutdown");
+        graphs.closeAll();
     }
 }
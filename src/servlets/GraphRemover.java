@@ -0,0 +1,71 @@
+package servlets;
+
+import configs.GraphRegistry;
+import server.RequestParser.RequestInfo;
+import server.Servlet;
+import utils.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+
+/**
+ * The GraphRemover servlet handles DELETE requests to /g/{graph} and destroys the named graph instance.
+ * The instance's agents are stopped; other instances are not affected.
+ */
+public class GraphRemover implements Servlet {
+    private final GraphRegistry graphs;
+
+    /**
+     * Creates a GraphRemover for the instances of the given registry.
+     *
+     * @param graphs The registry of graph instances
+     */
+    public GraphRemover(GraphRegistry graphs) {
+        this.graphs = graphs;
+    }
+
+    /**
+     * Destroys the graph instance named in the URI.
+     *
+     * @param request The HTTP request information
+     * @param out The output stream to write the response to
+     * @throws IOException If there's an error writing the response
+     */
+    @Override
+    public void handle(RequestInfo request, OutputStream out) throws IOException {
+        PrintWriter writer = new PrintWriter(out, true);
+        String[] segments = request.getUriSegments();
+        if (segments.length < 2 || !segments[0].equals(GraphRegistry.GRAPH_SEGMENT)) {
+            writer.println("HTTP/1.1 400 Bad Request");
+            writer.println("Content-Type: text/plain; charset=UTF-8");
+            writer.println();
+            writer.println("Expected /g/{graph}");
+            writer.flush();
+            return;
+        }
+
+        String name = segments[1];
+        if (graphs.destroy(name)) {
+            Logger.info("GraphRemover: Destroyed graph " + name);
+            writer.println("HTTP/1.1 200 OK");
+            writer.println("Content-Type: text/plain; charset=UTF-8");
+            writer.println();
+            writer.println("Graph " + name + " destroyed");
+        } else {
+            writer.println("HTTP/1.1 404 Not Found");
+            writer.println("Content-Type: text/plain; charset=UTF-8");
+            writer.println();
+            writer.println("Graph not found: " + name);
+        }
+        writer.flush();
+    }
+
+    /**
+     * Closes any resources held by the servlet.
+     * The graph instances are closed by the ConfLoader.
+     */
+    @Override
+    public void close() throws IOException {
+    }
+}
@@ -3,20 +3,26 @@ package servlets;
 import server.RequestParser.RequestInfo;
 import server.Servlet;
 import graph.TopicManagerSingleton;
+import configs.GraphInstance;
+import configs.GraphRegistry;
 import graph.Topic;
 import graph.Message;
-import graph.Agent;
+import configs.GenericConfig;
+import configs.GraphView;
 import utils.Logger;
+import views.Template;
 
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * The TopicDisplayer servlet handles the real-time display and updating of topic values
@@ -29,8 +35,24 @@ import java.util.Set;
  * - Updates the graph visualization in real-time
  * - Provides reset functionality to clear the display
  * - Handles error cases with appropriate error responses
+ *
+ * Requests to /g/{graph}/publish address the named graph instance, other requests the default instance.
  */
 public class TopicDisplayer implements Servlet {
+    /** The topic table page */
+    private static final Path TEMPLATE_PATH = Paths.get(System.getProperty("user.dir"), "html_files", "topic_table.html");
+    /** Maximum time to wait for the agents to finish processing a published message */
+    private static final long SETTLE_TIMEOUT_MS = 500;
+    private final GraphRegistry graphs;
+
+    /**
+     * Creates a TopicDisplayer that publishes to the instances of the given registry.
+     *
+     * @param graphs The registry of graph instances
+     */
+    public TopicDisplayer(GraphRegistry graphs) {
+        this.graphs = graphs;
+    }
 
     /**
      * Handles GET requests for topic updates and message publishing.
@@ -38,6 +60,14 @@ public class TopicDisplayer implements Servlet {
      * The method handles two types of requests:
      * 1. Reset requests (?reset=true) - Clears the topic table
      * 2. Publish requests (?topic=X&message=Y) - Publishes a message to a topic
+     * 3. Multi-topic publish requests (?topic=X,Y&message=1,2) - Publishes all values as one wave
+     *
+     * An optional key parameter (?topic=X&message=1&key=42) publishes the values for that entity;
+     * keyed agents keep separate state per key.
+     *
+     * An optional since parameter holds the graph version the client shows; the graph update
+     * then carries only the nodes changed after it, and the table update only the topics changed
+     * after it and the ones just published. Without it, both carry every node and topic.
      * 
      * After processing, it updates both the topic table and graph visualization
      * with the current state of all topics and agents.
@@ -67,72 +97,139 @@ public class TopicDisplayer implements Servlet {
             return;
         }
 
-        TopicManagerSingleton.TopicManager topicManager = TopicManagerSingleton.get();
-        Topic topicObj = topicManager.getTopic(topic);
+        long key = Message.NO_KEY;
+        String keyParameter = request.getParameters().get("key");
+        if (keyParameter != null && !keyParameter.isEmpty()) {
+            try {
+                key = Long.parseLong(keyParameter);
+            } catch (NumberFormatException e) {
+                sendError(writer, "Invalid key: " + keyParameter);
+                return;
+            }
+            if (key == Message.NO_KEY) {
+                // 0 marks messages without a key, an entity 0 would silently share their state
+                sendError(writer, "Invalid key: 0 is reserved for messages without a key");
+                return;
+            }
+        }
 
-        if (topicObj == null) {
-            sendError(writer, "Topic not found: " + topic);
+        GraphInstance instance = graphs.get(GraphRegistry.graphName(request.getUriSegments()));
+        if (instance == null) {
+            sendError(writer, "Graph not found: " + GraphRegistry.graphName(request.getUriSegments()));
             return;
         }
+        TopicManagerSingleton.TopicManager topicManager = instance.getTopicManager();
 
-        // Publish the message
-        topicObj.publish(new Message(message));
-        Logger.info("Published message '" + message + "' to topic '" + topic + "'");
+        if (topic.contains(",")) {
+            // Several topics (?topic=A,B&message=1,2) are published together as one wave
+            String[] topicNames = topic.split(",");
+            String[] messages = message.split(",", -1);
+            if (topicNames.length != messages.length) {
+                sendError(writer, "Number of topics and messages does not match");
+                return;
+            }
+            Map<String, Message> values = new LinkedHashMap<>();
+            for (int i = 0; i < topicNames.length; i++) {
+                String name = topicNames[i].trim();
+                if (topicManager.findTopic(name) == null) {
+                    sendError(writer, "Topic not found: " + name);
+                    return;
+                }
+                values.put(name, new Message(messages[i].trim(), key));
+            }
+            long epoch;
+            try {
+                epoch = topicManager.publish(values);
+            } catch (IllegalStateException e) {
+                // Queued agents would see the values one by one
+                sendError(writer, e.getMessage());
+                return;
+            }
+            Logger.info("Published messages '" + message + "' to topics '" + topic + "' in epoch " + epoch);
+        } else {
+            Topic topicObj = topicManager.getTopic(topic);
 
-        // Build JSON of topic values and agent equations
-        StringBuilder json = new StringBuilder();
-        json.append("{\"topics\":{");
-        boolean first = true;
-        
-        for (Topic t : topicManager.getTopics()) {
-            if (!first) {
-                json.append(",");
+            if (topicObj == null) {
+                sendError(writer, "Topic not found: " + topic);
+                return;
             }
-            first = false;
-            Message msg = t.getLastMessage();
-            String value = msg != null ? msg.asText : "";
-            json.append(String.format("\"%s\":\"%s\"", 
-                escapeJson(t.name), 
-                escapeJson(value)));
+
+            // Publish the message
+            topicObj.publish(new Message(message, key));
+            Logger.info("Published message '" + message + "' to topic '" + topic + "'");
         }
-        json.append("},\"agents\":{");
-        
-        // Add agent equations
-        first = true;
-        Set<Agent> processedAgents = new HashSet<>();
-        for (Topic t : topicManager.getTopics()) {
-            for (Agent agent : t.getSubscribers()) {
-                if (processedAgents.add(agent)) {  // Only process if agent hasn't been seen before
-                    if (!first) {
-                        json.append(",");
-                    }
-                    first = false;
-                    Message eq = agent.getEquation();
-                    String equation = eq != null ? eq.asText : "?";
-                    // Include UUID in the key to make it unique
-                    String uniqueKey = "A" + agent.getName() + "_" + agent.getUUID().substring(0, 8);
-                    json.append(String.format("\"%s\":{\"uuid\":\"%s\",\"equation\":\"%s\"}",
-                        escapeJson(uniqueKey),
-                        escapeJson(agent.getUUID()),
-                        escapeJson(equation)));
+
+        // Agents compute on their own threads, give them a moment to propagate the new value
+        GenericConfig config = instance.getConfig();
+        if (config != null && !config.awaitIdle(SETTLE_TIMEOUT_MS)) {
+            Logger.warn("TopicDisplayer: agents still busy, showing partial results");
+        }
+
+        // The graph only needs the nodes changed since the version it shows
+        GraphView view = instance.getView();
+        long version = view.refresh();
+        long since = parseVersion(request.getParameters().get("since"));
+        StringBuilder delta = new StringBuilder();
+        delta.append("{\"version\":").append(version).append(",\"topics\":{");
+        StringBuilder agents = new StringBuilder();
+        Map<String, String> tableValues = new LinkedHashMap<>();
+        int changed = 0;
+        for (GraphView.Change change : view.changesSince(since)) {
+            if (change.topic) {
+                if (delta.charAt(delta.length() - 1) != '{') {
+                    delta.append(',');
+                }
+                String name = change.nodeId.substring(1);
+                appendJsonString(delta, name).append(':');
+                appendJsonString(delta, change.text);
+                tableValues.put(name, change.text);
+            } else {
+                if (agents.length() > 0) {
+                    agents.append(',');
                 }
+                // The node id includes the UUID prefix to make it unique
+                appendJsonString(agents, change.nodeId).append(":{\"equation\":");
+                appendJsonString(agents, change.text).append('}');
+            }
+            changed++;
+        }
+        delta.append("},\"agents\":{").append(agents).append("}}");
+        Logger.info("TopicDisplayer: Generated graph update of " + changed + " nodes at version " + version);
+
+        // The table shows every topic on its first load, later only the changed ones. Published topics are
+        // added, as they may not be connected to any agent and then have no node in the graph.
+        boolean tableDelta = since >= 0;
+        if (!tableDelta) {
+            tableValues.clear();
+        }
+        for (Topic t : tableDelta ? publishedTopics(topicManager, topic) : topicManager.getTopics()) {
+            Message msg = t.getLastMessage();
+            tableValues.put(t.name, msg != null ? msg.asText : "");
+        }
+        StringBuilder json = new StringBuilder();
+        json.append('{');
+        for (Map.Entry<String, String> entry : tableValues.entrySet()) {
+            if (json.length() > 1) {
+                json.append(",");
             }
+            appendJsonString(json, entry.getKey()).append(':');
+            appendJsonString(json, entry.getValue());
         }
-        json.append("}");
-        json.append("}");
-        Logger.info("TopicDisplayer: Generated JSON update: " + json.toString());
+        json.append('}');
 
         // Load the topic table template
-        Path templatePath = Paths.get(System.getProperty("user.dir"), "html_files", "topic_table.html");
-        String template = Files.readString(templatePath);
+        Template template = Template.load(TEMPLATE_PATH);
 
         // Send response
         writer.println("HTTP/1.1 200 OK");
         writer.println("Content-Type: text/html; charset=UTF-8");
         writer.println();
-        writer.println(template);
+        template.render(writer, Collections.emptyMap());
+        writer.println();
         writer.println("<script>");
-        writer.println("  window.updateTopicTable(" + json.toString() + ".topics);");
+        writer.print("  window.updateTopicTable(");
+        writer.append(json);
+        writer.println(tableDelta ? ", true);" : ");");
         // Update graph with new values
         writer.println("  try {");
         // Get the top-level window
@@ -142,7 +239,9 @@ public class TopicDisplayer implements Servlet {
         writer.println("    if (graphFrame && graphFrame.contentWindow) {");
         writer.println("      const graphWindow = graphFrame.contentWindow;");
         writer.println("      if (graphWindow.updateGraph) {");
-        writer.println("        graphWindow.updateGraph(" + json.toString() + ");");
+        writer.print("        graphWindow.updateGraph(");
+        writer.append(delta);
+        writer.println(");");
         writer.println("      } else {");
         writer.println("        console.error('updateGraph function not found in graph window');");
         writer.println("      }");
@@ -156,6 +255,37 @@ public class TopicDisplayer implements Servlet {
         writer.flush();
     }
 
+    /**
+     * Returns the existing topics among the comma separated names of a publish request.
+     */
+    private static List<Topic> publishedTopics(TopicManagerSingleton.TopicManager topicManager, String names) {
+        List<Topic> topics = new ArrayList<>();
+        for (String name : names.split(",")) {
+            Topic topic = topicManager.findTopic(name.trim());
+            if (topic != null) {
+                topics.add(topic);
+            }
+        }
+        return topics;
+    }
+
+    /**
+     * Parses the graph version a client last saw.
+     *
+     * @param since The since parameter, may be null
+     * @return The version, or -1 to send every node when the parameter is missing or invalid
+     */
+    private static long parseVersion(String since) {
+        if (since == null || since.isEmpty()) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(since);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     /**
      * Sends an empty topic table response.
      * Used when resetting the display or when there are no topics.
@@ -165,14 +295,14 @@ public class TopicDisplayer implements Servlet {
      */
     private void sendEmptyTable(PrintWriter writer) throws IOException {
         // Load the topic table template
-        Path templatePath = Paths.get(System.getProperty("user.dir"), "html_files", "topic_table.html");
-        String template = Files.readString(templatePath);
+        Template template = Template.load(TEMPLATE_PATH);
 
         // Send response with empty data
         writer.println("HTTP/1.1 200 OK");
         writer.println("Content-Type: text/html; charset=UTF-8");
         writer.println();
-        writer.println(template);
+        template.render(writer, Collections.emptyMap());
+        writer.println();
         writer.println("<script>");
         writer.println("  window.updateTopicTable({});");
         writer.println("</script>");
@@ -208,19 +338,29 @@ public class TopicDisplayer implements Servlet {
     }
 
     /**
-     * Escapes special characters in a string for JSON output.
+     * Appends a string to JSON output as a quoted, escaped JSON string.
      * 
-     * @param input The string to escape
-     * @return The escaped string safe for JSON output
+     * @param json The JSON being built
+     * @param input The string to append
+     * @return The JSON being built
      */
-    private String escapeJson(String input) {
-        return input.replace("\\", "\\\\")
-                   .replace("\"", "\\\"")
-                   .replace("\b", "\\b")
-                   .replace("\f", "\\f")
-                   .replace("\n", "\\n")
-                   .replace("\r", "\\r")
-                   .replace("\t", "\\t");
+    private static StringBuilder appendJsonString(StringBuilder json, String input) {
+        json.append('"');
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+            switch (c) {
+                case '\\': json.append("\\\\"); break;
+                case '"': json.append("\\\""); break;
+                case '\b': json.append("\\b"); break;
+                case '\f': json.append("\\f"); break;
+                case '\n': json.append("\\n"); break;
+                case '\r': json.append("\\r"); break;
+                case '\t': json.append("\\t"); break;
+                case '<': json.append("\\u003c"); break;  // keeps "</script>" from ending the script block
+                default: json.append(c);
+            }
+        }
+        return json.append('"');
     }
 
     /**
@@ -1,149 +1,207 @@
 package views;
 
 import configs.Graph;
-import configs.Node;
-import graph.Agent;
-import graph.Topic;
-import graph.Message;
+import configs.GraphLayout;
+import configs.GraphView;
 import graph.TopicManagerSingleton;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
 
 public class HtmlGraphWriter {
+    /** The graph page, with NODES, EDGES and VERSION slots */
+    private static final Path TEMPLATE_PATH = Paths.get(System.getProperty("user.dir"), "html_files", "graph.html");
+
     public static String getGraphHtml(Graph graph) throws IOException {
-        // Load the HTML template
-        Path currentDir = Paths.get(System.getProperty("user.dir"));
-        Path templatePath = currentDir.resolve("html_files/graph.html");
-        String template = Files.readString(templatePath, StandardCharsets.UTF_8);
-
-        // Get topic manager for accessing topic values
-        TopicManagerSingleton.TopicManager topicManager = TopicManagerSingleton.get();
-
-        // Generate nodes array
-        StringBuilder nodesJsArray = new StringBuilder("[\n");
-        Map<String, Integer> nodeIds = new HashMap<>();
-        int id = 1;
-
-        // Add all nodes
-        for (Node node : graph) {
-            if (nodesJsArray.length() > 2) { // Add comma if not first entry
-                nodesJsArray.append(",\n");
-            }
+        return getGraphHtml(graph, TopicManagerSingleton.get());
+    }
 
-            String nodeName = node.getName();
-            nodeIds.put(nodeName, id);
-
-            // Determine node type and style
-            boolean isTopic = nodeName.startsWith("T");
-            String label = nodeName.substring(1); // Remove T or A prefix
-            
-            if (isTopic) {
-                // Topic node (rectangle)
-                String value = "No value";
-                Message nodeMessage = node.getMessage();
-                
-                if (nodeMessage != null) {
-                    value = nodeMessage.asText;
-                }
-                
-                nodesJsArray.append(String.format(
-                    "    { id: '%s', " +
-                    "label: '%s\\n%s', " +
-                    "shape: 'box', " +
-                    "color: { background: '#97C2FC', border: '#2B7CE9' }, " +
-                    "font: { color: '#000000', multi: true, size: 14 }, " +
-                    "margin: 10, " +
-                    "value: '%s' }",
-                    nodeName, label, value, value));
+    public static String getGraphHtml(Graph graph, TopicManagerSingleton.TopicManager topicManager) throws IOException {
+        StringWriter out = new StringWriter();
+        writeGraphHtml(loadTemplate(), new GraphView(graph, topicManager, 0), out);
+        return out.toString();
+    }
+
+    /**
+     * Returns the compiled graph page template. Loading it before writing a response lets callers still
+     * report a missing template as an error.
+     */
+    public static Template loadTemplate() throws IOException {
+        return Template.load(TEMPLATE_PATH);
+    }
+
+    /**
+     * Writes the graph page straight to the output, with the node values of the view's current version.
+     * The page remembers that version, so later updates only need to carry the nodes changed since.
+     * A clustered layout is written as its clusters, which the page expands on demand.
+     */
+    public static void writeGraphHtml(Template template, GraphView view, Writer out) throws IOException {
+        long version = view.refresh();
+        GraphLayout layout = view.getLayout();
+        Map<String, Template.Slot> slots = new HashMap<>();
+        slots.put("NODES", o -> writeNodes(layout, view, o));
+        slots.put("EDGES", o -> writeEdges(layout, o));
+        slots.put("VERSION", o -> o.write(Long.toString(version)));
+        template.render(out, slots);
+    }
+
+    private static void writeNodes(GraphLayout layout, GraphView view, Writer out) throws IOException {
+        out.write("[\n");
+        boolean first = true;
+        for (GraphLayout.Cluster cluster : layout.getClusters()) {
+            if (!first) { // Add comma if not first entry
+                out.write(",\n");
+            }
+            first = false;
+            out.write("    ");
+            if (cluster.isSingle()) {
+                int node = cluster.getMembers()[0];
+                writeNode(out, layout, node, view.getText(node));
             } else {
-                // Agent node (circle)
-                String color = "#FB7E81"; // default red
-                String borderColor = "#E6194B"; // darker red
-                String equation = "?";
-                
-                // Get the actual agent instance to get its equation
-                Agent targetAgent = null;
-                String agentName = nodeName.substring(1);  // Remove 'A' prefix
-                String agentBaseName = agentName;
-                String agentUUID = null;
-                
-                // Extract UUID if present
-                int underscoreIndex = agentName.lastIndexOf('_');
-                if (underscoreIndex > 0) {
-                    agentBaseName = agentName.substring(0, underscoreIndex);
-                    agentUUID = agentName.substring(underscoreIndex + 1);
-                }
-                
-                // Find agent by UUID
-                for (Topic topic : topicManager.getTopics()) {
-                    for (Agent agent : topic.getSubscribers()) {
-                        String uuid = agent.getUUID();
-                        if (uuid != null && uuid.startsWith(agentUUID)) {
-                            targetAgent = agent;
-                            break;
-                        }
-                    }
-                    if (targetAgent != null) break;
-                }
-                
-                if (targetAgent != null) {
-                    Message eqMsg = targetAgent.getEquation();
-                    equation = eqMsg != null ? eqMsg.asText : "?";
-                }
-                
-                if (agentBaseName.contains("Multiply")) {
-                    color = "#FFB347"; // orange
-                    borderColor = "#E67E22"; // darker orange
-                } else if (agentBaseName.contains("Divide")) {
-                    color = "#98FB98"; // pale green
-                    borderColor = "#2ECC71"; // darker green
-                } else if (agentBaseName.contains("Power")) {
-                    color = "#DDA0DD"; // plum
-                    borderColor = "#9B59B6"; // darker purple
-                } else if (agentBaseName.contains("Plus")) {
-                    color = "#90EE90"; // light green
-                    borderColor = "#32CD32"; // lime green
-                } else if (agentBaseName.contains("Minus")) {
-                    color = "#FFB6C1"; // light pink
-                    borderColor = "#FF69B4"; // hot pink
-                } else if (agentBaseName.contains("Inc")) {
-                    color = "#87CEEB"; // sky blue
-                    borderColor = "#3498DB"; // darker blue
-                }
-                nodesJsArray.append(String.format(
-                    "    { id: '%s', " +
-                    "label: '%s\\n%s', " +
-                    "shape: 'circle', " +
-                    "color: { background: '%s', border: '%s' }, " +
-                    "font: { color: '#000000', size: 14, face: 'monospace' }, " +
-                    "equation: '%s' }",
-                    nodeName, agentBaseName, equation, color, borderColor, equation));
+                writeCluster(out, cluster);
             }
         }
-        nodesJsArray.append("\n]");
-
-        // Generate edges array
-        StringBuilder edgesJsArray = new StringBuilder("[\n");
-        for (Node node : graph) {
-            for (Node target : node.getEdges()) {
-                if (edgesJsArray.length() > 2) { // Add comma if not first entry
-                    edgesJsArray.append(",\n");
-                }
-                edgesJsArray.append(String.format("    { from: '%s', to: '%s', color: { color: '#848484', highlight: '#2B7CE9' } }",
-                    node.getName(), target.getName()));
+        out.write("\n]");
+    }
+
+    /**
+     * Writes one node of the graph as a vis.js node in JSON, positioned if the layout is clustered.
+     *
+     * @param out the output to write to
+     * @param layout the layout of the graph
+     * @param node the index of the node in the layout
+     * @param text the value of a topic node, empty if it has none, or the equation of an agent node
+     */
+    public static void writeNode(Writer out, GraphLayout layout, int node, String text) throws IOException {
+        String nodeName = layout.getName(node);
+
+        // Determine node type and style
+        boolean isTopic = nodeName.startsWith("T");
+        String label = GraphLayout.displayName(nodeName);  // Remove T or A prefix and the UUID suffix
+
+        if (isTopic) {
+            // Topic node (rectangle)
+            String value = text.isEmpty() ? "No value" : text;
+            out.write("{\"id\":");
+            writeJson(out, nodeName);
+            out.write(",\"label\":");
+            writeJson(out, label + "\n" + value);
+            out.write(",\"shape\":\"box\",\"color\":{\"background\":\"#97C2FC\",\"border\":\"#2B7CE9\"},"
+                    + "\"font\":{\"color\":\"#000000\",\"multi\":true,\"size\":14},\"margin\":10,\"value\":");
+            writeJson(out, value);
+        } else {
+            // Agent node (circle)
+            String color = "#FB7E81"; // default red
+            String borderColor = "#E6194B"; // darker red
+
+            if (label.contains("Multiply")) {
+                color = "#FFB347"; // orange
+                borderColor = "#E67E22"; // darker orange
+            } else if (label.contains("Divide")) {
+                color = "#98FB98"; // pale green
+                borderColor = "#2ECC71"; // darker green
+            } else if (label.contains("Power")) {
+                color = "#DDA0DD"; // plum
+                borderColor = "#9B59B6"; // darker purple
+            } else if (label.contains("Plus")) {
+                color = "#90EE90"; // light green
+                borderColor = "#32CD32"; // lime green
+            } else if (label.contains("Minus")) {
+                color = "#FFB6C1"; // light pink
+                borderColor = "#FF69B4"; // hot pink
+            } else if (label.contains("Inc")) {
+                color = "#87CEEB"; // sky blue
+                borderColor = "#3498DB"; // darker blue
             }
+            out.write("{\"id\":");
+            writeJson(out, nodeName);
+            out.write(",\"label\":");
+            writeJson(out, label + "\n" + text);
+            out.write(",\"shape\":\"circle\",\"color\":{\"background\":\"" + color + "\",\"border\":\""
+                    + borderColor + "\"},\"font\":{\"color\":\"#000000\",\"size\":14,\"face\":\"monospace\"},"
+                    + "\"equation\":");
+            writeJson(out, text);
         }
-        edgesJsArray.append("\n]");
+        if (layout.isClustered()) {
+            writePosition(out, layout.getX(node), layout.getY(node));
+        }
+        out.write("}");
+    }
 
-        // Replace placeholders in template
-        String result = template
-            .replace("/* NODES_PLACEHOLDER */", nodesJsArray.toString())
-            .replace("/* EDGES_PLACEHOLDER */", edgesJsArray.toString());
+    /**
+     * Writes a cluster of nodes as one vis.js node in JSON.
+     */
+    private static void writeCluster(Writer out, GraphLayout.Cluster cluster) throws IOException {
+        out.write("{\"id\":");
+        writeJson(out, cluster.getId());
+        out.write(",\"label\":");
+        writeJson(out, cluster.getLabel());
+        out.write(",\"shape\":\"box\",\"color\":{\"background\":\"#E9ECEF\",\"border\":\"#6C757D\"},"
+                + "\"font\":{\"color\":\"#000000\",\"multi\":true,\"size\":14},\"margin\":10,"
+                + "\"shapeProperties\":{\"borderDashes\":[5,5]},\"cluster\":true,\"remaining\":"
+                + cluster.getMembers().length);
+        writePosition(out, cluster.getX(), cluster.getY());
+        out.write("}");
+    }
+
+    private static void writePosition(Writer out, double x, double y) throws IOException {
+        out.write(",\"x\":" + Math.round(x) + ",\"y\":" + Math.round(y));
+    }
 
-        return result;
+    private static void writeEdges(GraphLayout layout, Writer out) throws IOException {
+        out.write("[\n");
+        boolean first = true;
+        List<GraphLayout.Cluster> clusters = layout.getClusters();
+        for (int[] edge : layout.getClusterEdges()) {
+            if (!first) { // Add comma if not first entry
+                out.write(",\n");
+            }
+            first = false;
+            out.write("    ");
+            writeEdge(out, clusters.get(edge[0]).getId(), clusters.get(edge[1]).getId());
+        }
+        out.write("\n]");
+    }
+
+    /**
+     * Writes an edge between two vis.js nodes in JSON. The edge id is made of the two node ids,
+     * so the page can tell an edge it already has.
+     */
+    public static void writeEdge(Writer out, String from, String to) throws IOException {
+        out.write("{\"id\":");
+        writeJson(out, from + ">" + to);
+        out.write(",\"from\":");
+        writeJson(out, from);
+        out.write(",\"to\":");
+        writeJson(out, to);
+        out.write(",\"color\":{\"color\":\"#848484\",\"highlight\":\"#2B7CE9\"}}");
+    }
+
+    /**
+     * Writes text as a quoted JSON string, which is also safe inside a script block.
+     */
+    public static void writeJson(Writer out, String text) throws IOException {
+        out.write('"');
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\' || c == '<' || c < 0x20) {
+                out.write(text, start, i - start);
+                switch (c) {
+                    case '"': out.write("\\\""); break;
+                    case '\\': out.write("\\\\"); break;
+                    case '\n': out.write("\\n"); break;
+                    case '\r': out.write("\\r"); break;
+                    case '\t': out.write("\\t"); break;
+                    default: out.write(String.format("\\u%04x", (int) c));  // '<' too, so "</script>" cannot end the script
+                }
+                start = i + 1;
+            }
+        }
+        out.write(text, start, text.length() - start);
+        out.write('"');
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,97 @@
+package views;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The Template class is an HTML template compiled into literal text and named slots.
+ *
+ * A slot is written in the file as a block comment holding its name followed by _PLACEHOLDER, e.g. the comment
+ * NODES_PLACEHOLDER in graph.html. A template is read and split once, and cached until the file's modification
+ * time changes. Rendering writes the literals and the slot contents straight to the output, without building
+ * the page as a string first.
+ */
+public class Template {
+    private static final Pattern SLOT = Pattern.compile("/\\* ([A-Z][A-Z0-9_]*)_PLACEHOLDER \\*/");
+    private static final Map<Path, Template> cache = new ConcurrentHashMap<>();
+
+    private final FileTime modified;
+    private final String[] literals;  // literals[i] comes before slots[i], the last literal ends the page
+    private final String[] slots;
+
+    /**
+     * Writes the content of one slot.
+     */
+    @FunctionalInterface
+    public interface Slot {
+        void write(Writer out) throws IOException;
+    }
+
+    private Template(FileTime modified, String[] literals, String[] slots) {
+        this.modified = modified;
+        this.literals = literals;
+        this.slots = slots;
+    }
+
+    /**
+     * Returns the compiled template of a file, compiling it on first use and again after the file changed.
+     *
+     * @param path the template file
+     * @return the compiled template
+     * @throws IOException if the file cannot be read
+     */
+    public static Template load(Path path) throws IOException {
+        FileTime modified = Files.getLastModifiedTime(path);
+        Template template = cache.get(path);
+        if (template != null && template.modified.equals(modified)) {
+            return template;
+        }
+        template = compile(Files.readString(path, StandardCharsets.UTF_8), modified);
+        cache.put(path, template);
+        return template;
+    }
+
+    private static Template compile(String text, FileTime modified) {
+        List<String> literals = new ArrayList<>();
+        List<String> slots = new ArrayList<>();
+        Matcher matcher = SLOT.matcher(text);
+        int last = 0;
+        while (matcher.find()) {
+            literals.add(text.substring(last, matcher.start()));
+            slots.add(matcher.group(1));
+            last = matcher.end();
+        }
+        literals.add(text.substring(last));
+        return new Template(modified, literals.toArray(new String[0]), slots.toArray(new String[0]));
+    }
+
+    /**
+     * Writes the template to the output, filling every slot from the map.
+     *
+     * @param out the output to write to
+     * @param values the writer of each slot, by slot name (e.g. NODES for NODES_PLACEHOLDER)
+     * @throws IOException if writing fails
+     * @throws IllegalArgumentException if the template has a slot without a value
+     */
+    public void render(Writer out, Map<String, Slot> values) throws IOException {
+        for (int i = 0; i < slots.length; i++) {
+            out.write(literals[i]);
+            Slot slot = values.get(slots[i]);
+            if (slot == null) {
+                throw new IllegalArgumentException("No value for template slot " + slots[i]);
+            }
+            slot.write(out);
+        }
+        out.write(literals[slots.length]);
+    }
+}